@@ -0,0 +1,134 @@
+package benchmark;
+
+import main.java.net.protocol.SnakesProto;
+import mvc.model.GameModel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Замер времени переключения на заместителя: мастер, заместитель и обычный игрок на loopback,
+ * мастер "падает" (destroy без уведомлений), замеряем, через сколько заместитель стал мастером,
+ * сделал первый ход и обычный игрок получил от него состояние.
+ *
+ * Параметры key=value: rounds=5 stateDelay=100 pingDelay=30 nodeTimeout=300
+ */
+public class FailoverBenchmark {
+    private final int rounds;
+    private final int stateDelay;
+    private final int pingDelay;
+    private final int nodeTimeout;
+
+    public FailoverBenchmark(Map<String, String> params) {
+        rounds = Integer.parseInt(params.getOrDefault("rounds", "5"));
+        stateDelay = Integer.parseInt(params.getOrDefault("stateDelay", "100"));
+        pingDelay = Integer.parseInt(params.getOrDefault("pingDelay", "30"));
+        nodeTimeout = Integer.parseInt(params.getOrDefault("nodeTimeout", "300"));
+    }
+
+    public void run() throws IOException, InterruptedException {
+        long detection = 0;
+        long firstTick = 0;
+        long firstState = 0;
+        int successful = 0;
+        for (int round = 0; round < rounds; ++round) {
+            long[] result = runRound();
+            if (result == null) {
+                continue;
+            }
+            detection += result[0];
+            firstTick += result[1];
+            firstState += result[2];
+            successful++;
+        }
+        System.out.printf("Удачных раундов %d из %d%n", successful, rounds);
+        if (successful > 0) {
+            System.out.printf("  от падения мастера до повышения заместителя: %.1f мс%n",
+                    detection / 1e6 / successful);
+            System.out.printf("  от падения до первого хода нового мастера: %.1f мс%n",
+                    firstTick / 1e6 / successful);
+            System.out.printf("  от падения до состояния у обычного игрока: %.1f мс%n",
+                    firstState / 1e6 / successful);
+            System.out.printf("  первый ход после повышения: %.1f мс%n",
+                    (firstTick - detection) / 1e6 / successful);
+        }
+    }
+
+    private long[] runRound() throws IOException, InterruptedException {
+        GameModel master = new GameModel(40, 30, 1, 1, stateDelay, 0.1f, pingDelay, nodeTimeout,
+                SnakesProto.NodeRole.MASTER, "master");
+        InetSocketAddress masterAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                master.getUnicastSocket().getLocalPort());
+        GameModel deputy = new GameModel("deputy", masterAddress, master.getGameConfig());
+        GameModel normal = null;
+        try {
+            if (!waitFor(() -> deputy.getNodeRole() == SnakesProto.NodeRole.DEPUTY, 5000)) {
+                return null;
+            }
+            normal = new GameModel("normal", masterAddress, master.getGameConfig());
+            GameModel normalModel = normal;
+            if (!waitFor(() -> normalModel.getStateOrder() > 3 && deputy.getStateOrder() > 3, 5000)) {
+                return null;
+            }
+
+            AtomicLong firstTickTime = new AtomicLong();
+            deputy.setTickListener((stateOrder, tickStart, tickDuration) ->
+                    firstTickTime.compareAndSet(0L, tickStart));
+            int deputyPort = deputy.getUnicastSocket().getLocalPort();
+            int stateOrderAtCrash = normal.getStateOrder();
+
+            long crashTime = System.nanoTime();
+            master.destroy();
+
+            if (!waitFor(() -> deputy.getNodeRole() == SnakesProto.NodeRole.MASTER, 10L * nodeTimeout)) {
+                return null;
+            }
+            long promotionTime = System.nanoTime();
+            if (!waitFor(() -> firstTickTime.get() != 0L && normalModel.getMasterPort() == deputyPort
+                    && normalModel.getStateOrder() > stateOrderAtCrash, 10L * nodeTimeout)) {
+                return null;
+            }
+            long firstStateTime = System.nanoTime();
+            return new long[] {promotionTime - crashTime, firstTickTime.get() - crashTime,
+                    firstStateTime - crashTime};
+        }
+        finally {
+            master.destroy();
+            deputy.destroy();
+            if (normal != null) {
+                normal.destroy();
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean check();
+    }
+
+    private static boolean waitFor(Condition condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            if (condition.check()) {
+                return true;
+            }
+            Thread.sleep(0, 200_000);
+        }
+        return condition.check();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length == 2) {
+                params.put(parts[0], parts[1]);
+            }
+        }
+        new FailoverBenchmark(params).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,143 @@
+package benchmark;
+
+import main.java.net.protocol.SnakesProto;
+import mvc.model.GameModel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Пропускная способность изменений модели мастера: несколько потоков (как поток приёма)
+ * одновременно с ходами подключают и отключают игроков и шлют повороты.
+ * Режим direct - вызовы прямо из потоков-производителей, как было раньше,
+ * режим queued - командами в поток игры через GameModel.execute.
+ *
+ * Параметры key=value: producers=4 seconds=10 width=200 height=200 stateDelay=20 inFlight=1024
+ */
+public class GameLoopBenchmark {
+    private final int producers;
+    private final int seconds;
+    private final int width;
+    private final int height;
+    private final int stateDelay;
+    private final int inFlight;
+
+    public GameLoopBenchmark(Map<String, String> params) {
+        producers = Integer.parseInt(params.getOrDefault("producers", "4"));
+        seconds = Integer.parseInt(params.getOrDefault("seconds", "10"));
+        width = Integer.parseInt(params.getOrDefault("width", "200"));
+        height = Integer.parseInt(params.getOrDefault("height", "200"));
+        stateDelay = Integer.parseInt(params.getOrDefault("stateDelay", "20"));
+        inFlight = Integer.parseInt(params.getOrDefault("inFlight", "1024"));
+    }
+
+    public void run() throws IOException, InterruptedException {
+        for (boolean queued : new boolean[] {false, true}) {
+            runMode(queued);
+        }
+    }
+
+    private void runMode(boolean queued) throws IOException, InterruptedException {
+        GameModel master = new GameModel(width, height, 10, 1, stateDelay, 0.1f, 100, 60000,
+                SnakesProto.NodeRole.MASTER, "bench-master");
+        List<Long> tickDurations = Collections.synchronizedList(new ArrayList<>());
+        master.setTickListener((stateOrder, tickStart, tickDuration) -> tickDurations.add(tickDuration));
+
+        AtomicLong completed = new AtomicLong();
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        Semaphore window = new Semaphore(inFlight);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                int port = 20000 + producer * 1000;
+                while (System.nanoTime() < end) {
+                    int playerPort = port++;
+                    Runnable command = () -> {
+                        int id = master.tryJoin("bot", loopback, playerPort);
+                        if (id > 0) {
+                            master.addNewSteerMsg(id, 1, SnakesProto.GameMessage.SteerMsg.newBuilder()
+                                    .setDirection(SnakesProto.Direction.values()[
+                                            ThreadLocalRandom.current().nextInt(4)]).build());
+                            master.removePlayer(id);
+                        }
+                    };
+                    if (queued) {
+                        window.acquireUninterruptibly();
+                        master.execute(() -> {
+                            try {
+                                command.run();
+                                completed.incrementAndGet();
+                            }
+                            catch (RuntimeException ex) {
+                                errors.add(ex);
+                            }
+                            finally {
+                                window.release();
+                            }
+                        });
+                    }
+                    else {
+                        try {
+                            command.run();
+                            completed.incrementAndGet();
+                        }
+                        catch (RuntimeException ex) {
+                            errors.add(ex);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // дождаться, пока поток игры разберёт очередь
+        window.acquire(inFlight);
+        long total = completed.get();
+        master.destroy();
+
+        System.out.printf("==== %s ====%n", queued ? "queued (поток игры)" : "direct (как раньше)");
+        System.out.printf("Команд join+steer+leave: %d, %.0f в секунду, ошибок %d%n",
+                total, total / (double) seconds, errors.size());
+        Map<String, Integer> errorKinds = new TreeMap<>();
+        for (Throwable error : errors) {
+            errorKinds.merge(error.getClass().getSimpleName(), 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> kind : errorKinds.entrySet()) {
+            System.out.printf("  %s: %d%n", kind.getKey(), kind.getValue());
+        }
+        long[] sorted;
+        synchronized (tickDurations) {
+            sorted = tickDurations.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        if (sorted.length > 0) {
+            System.out.printf("Ходов: %d, длительность хода, мс: p50 %.3f, p99 %.3f, max %.3f%n", sorted.length,
+                    sorted[sorted.length / 2] / 1e6,
+                    sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.99) - 1)] / 1e6,
+                    sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length == 2) {
+                params.put(parts[0], parts[1]);
+            }
+        }
+        new GameLoopBenchmark(params).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,413 @@
+package benchmark;
+
+import main.java.net.protocol.SnakesProto;
+import mvc.model.GameModel;
+import mvc.model.Snake;
+import net.client.RttEstimator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Нагрузочный тест мастера: поднимает настоящий GameModel в роли MASTER и N симулированных клиентов,
+ * которые по loopback UDP говорят с ним на SnakesProto (join, steer, ack, ping).
+ *
+ * Параметры передаются в виде key=value, например:
+ *   clients=1000 seconds=30 width=100 height=100 stateDelay=100 pingDelay=100 nodeTimeout=800
+ *   steersPerSecond=2 joinsPerSecond=200
+ */
+public class LoadGenerator {
+
+    private final int clientsCount;
+    private final int seconds;
+    private final int stateDelay;
+    private final int pingDelay;
+    private final double steersPerSecond;
+    private final int joinsPerSecond;
+
+    private final GameModel master;
+    private final InetSocketAddress masterAddress;
+    private final Selector selector;
+    private final List<SimulatedClient> clients;
+    private final ByteBuffer receiveBuffer;
+
+    private final Map<Integer, Long> stateSentTime;
+    private final List<Long> tickDurations;
+    private final List<Long> tickIntervals;
+    private final List<Long> deliveryLatencies;
+    private final List<Long> ackLatencies;
+    private long lastTickStart = 0L;
+
+    private long statesReceived = 0;
+    private long staleStates = 0;
+    private long missedStates = 0;
+    private long clientMessagesSent = 0;
+    private long clientRetransmits = 0;
+    private long clientMessagesAcked = 0;
+    private int joined = 0;
+    private int rejected = 0;
+
+    public LoadGenerator(Map<String, String> params) throws IOException {
+        clientsCount = Integer.parseInt(params.getOrDefault("clients", "100"));
+        seconds = Integer.parseInt(params.getOrDefault("seconds", "30"));
+        stateDelay = Integer.parseInt(params.getOrDefault("stateDelay", "100"));
+        pingDelay = Integer.parseInt(params.getOrDefault("pingDelay", "100"));
+        steersPerSecond = Double.parseDouble(params.getOrDefault("steersPerSecond", "2"));
+        joinsPerSecond = Integer.parseInt(params.getOrDefault("joinsPerSecond", "200"));
+
+        stateSentTime = new ConcurrentHashMap<>();
+        tickDurations = Collections.synchronizedList(new ArrayList<>());
+        tickIntervals = Collections.synchronizedList(new ArrayList<>());
+        deliveryLatencies = new ArrayList<>();
+        ackLatencies = new ArrayList<>();
+
+        master = new GameModel(
+                Integer.parseInt(params.getOrDefault("width", "100")),
+                Integer.parseInt(params.getOrDefault("height", "100")),
+                Integer.parseInt(params.getOrDefault("foodStatic", "10")),
+                Float.parseFloat(params.getOrDefault("foodPerPlayer", "1")),
+                stateDelay,
+                Float.parseFloat(params.getOrDefault("deadFoodProb", "0.1")),
+                pingDelay,
+                Integer.parseInt(params.getOrDefault("nodeTimeout", "800")),
+                SnakesProto.NodeRole.MASTER,
+                "load-master"
+        );
+        master.setTickListener(this::onMasterTick);
+        masterAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                master.getUnicastSocket().getLocalPort());
+
+        selector = Selector.open();
+        clients = new ArrayList<>();
+        receiveBuffer = ByteBuffer.allocateDirect(65536);
+    }
+
+    private void onMasterTick(int stateOrder, long tickStart, long tickDuration) {
+        stateSentTime.put(stateOrder, tickStart + tickDuration);
+        stateSentTime.remove(stateOrder - 10000);
+        tickDurations.add(tickDuration);
+        if (lastTickStart != 0L) {
+            tickIntervals.add(tickStart - lastTickStart);
+        }
+        lastTickStart = tickStart;
+        steerMasterSnake();
+    }
+
+    // Змея мастера не должна умирать, иначе мастер перестанет считать ходы
+    private void steerMasterSnake() {
+        Snake snake = master.getSnakeById(master.getMyId());
+        if (snake == null) {
+            return;
+        }
+        int[] head = snake.getKeyPoints().get(0);
+        SnakesProto.Direction current = snake.getDirection();
+        List<SnakesProto.Direction> candidates = new ArrayList<>();
+        candidates.add(current);
+        for (SnakesProto.Direction direction : SnakesProto.Direction.values()) {
+            if (direction != current) {
+                candidates.add(direction);
+            }
+        }
+        for (SnakesProto.Direction direction : candidates) {
+            int x = head[0];
+            int y = head[1];
+            switch (direction) {
+                case UP:
+                    y--;
+                    break;
+                case DOWN:
+                    y++;
+                    break;
+                case LEFT:
+                    x--;
+                    break;
+                case RIGHT:
+                    x++;
+                    break;
+            }
+            GameModel.CellType type = master.getCellTypeByCoordinates(Math.floorMod(x, master.getFieldWidth()),
+                    Math.floorMod(y, master.getFieldHeight()));
+            if (type == GameModel.CellType.EMPTY || type == GameModel.CellType.FOOD) {
+                if (direction != current) {
+                    master.addNewSteerMsg(master.getMyId(), SnakesProto.GameMessage.SteerMsg.newBuilder()
+                            .setDirection(direction).build());
+                }
+                return;
+            }
+        }
+    }
+
+    public void run() throws IOException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long joinInterval = 1_000_000_000L / Math.max(1, joinsPerSecond);
+        long nextJoin = start;
+
+        while (System.nanoTime() < end) {
+            long now = System.nanoTime();
+            if (clients.size() < clientsCount && now >= nextJoin) {
+                SimulatedClient client = new SimulatedClient(clients.size());
+                clients.add(client);
+                client.sendJoin(now);
+                nextJoin = now + joinInterval;
+            }
+
+            selector.select(1);
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                SimulatedClient client = (SimulatedClient) key.attachment();
+                client.receiveAll();
+            }
+
+            now = System.nanoTime();
+            for (SimulatedClient client : clients) {
+                client.onTimer(now);
+            }
+        }
+
+        for (SimulatedClient client : clients) {
+            client.channel.close();
+        }
+        selector.close();
+        report();
+        master.destroy();
+    }
+
+    private void report() {
+        long lost = 0;
+        for (SimulatedClient client : clients) {
+            lost += client.pending.size();
+        }
+
+        System.out.println("==== Нагрузочный тест мастера ====");
+        System.out.printf("Клиентов: %d, подключились: %d, отказов: %d, живых змей: %d%n",
+                clients.size(), joined, rejected, master.getSnakeMap().size());
+        System.out.printf("Ходов мастера: %d, state_delay_ms: %d%n", tickDurations.size(), stateDelay);
+        printPercentiles("Длительность хода мастера", tickDurations);
+        printPercentiles("Интервал между ходами", tickIntervals);
+        printPercentiles("Доставка состояния клиенту", deliveryLatencies);
+        printPercentiles("RTT подтверждения (steer/ping)", ackLatencies);
+        System.out.printf("Состояний получено: %d, устаревших/повторных: %d, пропущено: %d (%.2f%%)%n",
+                statesReceived, staleStates, missedStates,
+                100.0 * missedStates / Math.max(1, statesReceived + missedStates));
+        System.out.printf("Мастер: отправлено пакетов %d, из них повторных %d (%.2f%%), очередь %d, " +
+                        "отложено из-за полосы %d%n",
+                master.getUnicastSender().getSentPackets(), master.getUnicastSender().getRetransmittedPackets(),
+                100.0 * master.getUnicastSender().getRetransmittedPackets()
+                        / Math.max(1, master.getUnicastSender().getSentPackets()),
+                master.getUnicastSender().getQueueSize(), master.getUnicastSender().getThrottledMessages());
+        List<Long> peerSrtts = new ArrayList<>();
+        for (RttEstimator.PeerRtt peer : master.getUnicastSender().getRttEstimator().getPeerRtts().values()) {
+            peerSrtts.add(Math.round(peer.getSrtt() * 1e6));
+        }
+        printPercentiles("SRTT мастера по узлам", peerSrtts);
+        System.out.printf("Клиенты: отправлено сообщений %d, повторов %d (%.2f%%), подтверждено %d, " +
+                        "без подтверждения %d (%.2f%%)%n",
+                clientMessagesSent, clientRetransmits, 100.0 * clientRetransmits / Math.max(1, clientMessagesSent),
+                clientMessagesAcked, lost, 100.0 * lost / Math.max(1, clientMessagesAcked + lost));
+    }
+
+    private static void printPercentiles(String name, List<Long> samples) {
+        long[] sorted;
+        synchronized (samples) {
+            sorted = new long[samples.size()];
+            for (int i = 0; i < sorted.length; ++i) {
+                sorted[i] = samples.get(i);
+            }
+        }
+        if (sorted.length == 0) {
+            System.out.printf("%s: нет данных%n", name);
+            return;
+        }
+        Arrays.sort(sorted);
+        System.out.printf("%s, мс: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f (n=%d)%n", name,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                sorted[sorted.length - 1] / 1e6, sorted.length);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static class PendingMessage {
+        private final byte[] data;
+        private final long firstSentTime;
+        private long lastSentTime;
+        private boolean retransmitted = false;
+
+        private PendingMessage(byte[] data, long sentTime) {
+            this.data = data;
+            this.firstSentTime = sentTime;
+            this.lastSentTime = sentTime;
+        }
+    }
+
+    private class SimulatedClient {
+        private final DatagramChannel channel;
+        private final String name;
+        private final Map<Long, PendingMessage> pending;
+        private int id = -1;
+        private boolean dead = false;
+        private long msgSeq = 1;
+        private int lastStateOrder = 0;
+        private long lastSentTime = 0L;
+        private long nextSteerTime = 0L;
+
+        private SimulatedClient(int number) throws IOException {
+            name = "bot-" + number;
+            pending = new HashMap<>();
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(0));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        private void sendJoin(long now) throws IOException {
+            SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+            builder.setJoin(SnakesProto.GameMessage.JoinMsg.newBuilder().setName(name));
+            builder.setMsgSeq(msgSeq++);
+            sendReliable(builder.build(), now);
+        }
+
+        private void sendReliable(SnakesProto.GameMessage message, long now) throws IOException {
+            byte[] data = message.toByteArray();
+            pending.put(message.getMsgSeq(), new PendingMessage(data, now));
+            send(data, now);
+        }
+
+        private void send(byte[] data, long now) throws IOException {
+            channel.send(ByteBuffer.wrap(data), masterAddress);
+            lastSentTime = now;
+            clientMessagesSent++;
+        }
+
+        private void sendAck(SnakesProto.GameMessage message, long now) throws IOException {
+            SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+            builder.setAck(SnakesProto.GameMessage.AckMsg.getDefaultInstance());
+            builder.setMsgSeq(message.getMsgSeq());
+            builder.setSenderId(id);
+            builder.setReceiverId(message.getSenderId());
+            send(builder.build().toByteArray(), now);
+        }
+
+        private void receiveAll() throws IOException {
+            while (true) {
+                receiveBuffer.clear();
+                if (channel.receive(receiveBuffer) == null) {
+                    return;
+                }
+                receiveBuffer.flip();
+                handle(SnakesProto.GameMessage.parseFrom(receiveBuffer), System.nanoTime());
+            }
+        }
+
+        private void handle(SnakesProto.GameMessage message, long now) throws IOException {
+            switch (message.getTypeCase()) {
+                case ACK:
+                    if (id < 0 && message.getReceiverId() > 0) {
+                        id = message.getReceiverId();
+                        joined++;
+                    }
+                    PendingMessage acked = pending.remove(message.getMsgSeq());
+                    if (acked != null) {
+                        clientMessagesAcked++;
+                        if (!acked.retransmitted) {
+                            ackLatencies.add(now - acked.firstSentTime);
+                        }
+                    }
+                    break;
+                case ERROR:
+                    if (pending.remove(message.getMsgSeq()) != null) {
+                        rejected++;
+                        dead = true;
+                    }
+                    break;
+                case STATE:
+                    int stateOrder = message.getState().getState().getStateOrder();
+                    statesReceived++;
+                    if (stateOrder <= lastStateOrder) {
+                        staleStates++;
+                    }
+                    else {
+                        if (lastStateOrder > 0) {
+                            missedStates += stateOrder - lastStateOrder - 1;
+                        }
+                        lastStateOrder = stateOrder;
+                        Long sentTime = stateSentTime.get(stateOrder);
+                        if (sentTime != null) {
+                            deliveryLatencies.add(now - sentTime);
+                        }
+                    }
+                    sendAck(message, now);
+                    break;
+                case PING:
+                case ROLE_CHANGE:
+                    sendAck(message, now);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onTimer(long now) throws IOException {
+            if (dead) {
+                return;
+            }
+            long retransmitTimeout = pingDelay * 1_000_000L;
+            for (PendingMessage message : pending.values()) {
+                if (now - message.lastSentTime >= retransmitTimeout) {
+                    message.lastSentTime = now;
+                    message.retransmitted = true;
+                    clientRetransmits++;
+                    send(message.data, now);
+                }
+            }
+            if (id < 0) {
+                return;
+            }
+            if (steersPerSecond > 0 && now >= nextSteerTime) {
+                if (nextSteerTime != 0L) {
+                    SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+                    SnakesProto.Direction[] directions = SnakesProto.Direction.values();
+                    builder.setSteer(SnakesProto.GameMessage.SteerMsg.newBuilder()
+                            .setDirection(directions[ThreadLocalRandom.current().nextInt(directions.length)]));
+                    builder.setSenderId(id);
+                    builder.setMsgSeq(msgSeq++);
+                    sendReliable(builder.build(), now);
+                }
+                double interval = -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) / steersPerSecond;
+                nextSteerTime = now + (long) (interval * 1e9);
+            }
+            if (now - lastSentTime >= retransmitTimeout) {
+                SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+                builder.setPing(SnakesProto.GameMessage.PingMsg.getDefaultInstance());
+                builder.setSenderId(id);
+                builder.setMsgSeq(msgSeq++);
+                sendReliable(builder.build(), now);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length == 2) {
+                params.put(parts[0], parts[1]);
+            }
+        }
+        new LoadGenerator(params).run();
+        System.exit(0);
+    }
+}
@@ -47,11 +47,12 @@ public final class GameController {
         }
         else {
             SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+            long msgSeq = model.nextMsgSeq();
             builder.setSteer(msg);
             builder.setSenderId(model.getMyId());
-            builder.setMsgSeq(model.getLastMsgSeq());
-            model.iterateLastMsqSeq();
+            builder.setMsgSeq(msgSeq);
             model.getUnicastSender().sendMessage(builder.build(), model.getMasterInetAddress(), model.getMasterPort());
+            model.predictSteer(msgSeq, msg.getDirection());
         }
     }
 }
@@ -0,0 +1,178 @@
+package mvc.model;
+
+import main.java.net.protocol.SnakesProto;
+import net.protocol.ProtocolExtensions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Пространственный индекс одного состояния для рассылки по окрестностям.
+ * Поле делится на квадратные корзины bucketSize x bucketSize, в корзину попадают змеи,
+ * тело которых через неё проходит, и еда. Состояние для игрока собирается только из корзин,
+ * задевающих квадрат радиуса radius вокруг центра, поэтому его сборка и размер пропорциональны
+ * видимой площади. Змея берётся целиком, если задевает окрестность хоть одной клеткой.
+ * К урезанному состоянию прикладывается грубая сводка: сколько змей в каждой из SUMMARY_REGIONS^2 областей поля.
+ */
+final class AreaOfInterest {
+    private final static int SUMMARY_REGIONS = 16;
+
+    private final SnakesProto.GameState state;
+    private final int width;
+    private final int height;
+    private final int bucketSize;
+    private final int bucketsX;
+    private final int bucketsY;
+    private final int[][] bucketSnakes;
+    private final int[] bucketSnakeCounts;
+    private final int[][] bucketFood;
+    private final int[] bucketFoodCounts;
+    private final Map<Integer, int[]> heads;
+    private final long[] summary;
+    private final int[] seen;
+    private int stamp = 0;
+
+    AreaOfInterest(SnakesProto.GameState state, int width, int height, int bucketSize) {
+        this.state = state;
+        this.width = width;
+        this.height = height;
+        this.bucketSize = bucketSize;
+        bucketsX = (width + bucketSize - 1) / bucketSize;
+        bucketsY = (height + bucketSize - 1) / bucketSize;
+        bucketSnakes = new int[bucketsX * bucketsY][];
+        bucketSnakeCounts = new int[bucketsX * bucketsY];
+        bucketFood = new int[bucketsX * bucketsY][];
+        bucketFoodCounts = new int[bucketsX * bucketsY];
+        heads = new HashMap<>();
+        seen = new int[state.getSnakesCount()];
+
+        int regionsX = Math.min(SUMMARY_REGIONS, width);
+        int regionsY = Math.min(SUMMARY_REGIONS, height);
+        summary = new long[2 + regionsX * regionsY];
+        summary[0] = regionsX;
+        summary[1] = regionsY;
+
+        for (int i = 0; i < state.getSnakesCount(); ++i) {
+            SnakesProto.GameState.Snake snake = state.getSnakes(i);
+            SnakesProto.GameState.Coord head = snake.getPoints(0);
+            heads.put(snake.getPlayerId(), new int[] {head.getX(), head.getY()});
+            summary[2 + (head.getY() * regionsY / height) * regionsX + head.getX() * regionsX / width]++;
+            indexSnake(snake, i);
+        }
+        for (int i = 0; i < state.getFoodsCount(); ++i) {
+            SnakesProto.GameState.Coord food = state.getFoods(i);
+            int bucket = bucketOf(food.getX(), food.getY());
+            bucketFood[bucket] = append(bucketFood[bucket], bucketFoodCounts[bucket]++, i);
+        }
+    }
+
+    private int bucketOf(int x, int y) {
+        return (y / bucketSize) * bucketsX + x / bucketSize;
+    }
+
+    // Обход тела как в GameModel.addSnakeBodyToField, змея записывается в корзину один раз подряд
+    private void indexSnake(SnakesProto.GameState.Snake snake, int index) {
+        int curX = snake.getPoints(0).getX();
+        int curY = snake.getPoints(0).getY();
+        int lastBucket = bucketOf(curX, curY);
+        addSnake(lastBucket, index);
+        for (int i = 1; i < snake.getPointsCount(); ++i) {
+            int dx = Integer.signum(snake.getPoints(i).getX());
+            int dy = Integer.signum(snake.getPoints(i).getY());
+            int length = Math.abs(snake.getPoints(i).getX()) + Math.abs(snake.getPoints(i).getY());
+            for (int j = 0; j < length; ++j) {
+                curX = Math.floorMod(curX + dx, width);
+                curY = Math.floorMod(curY + dy, height);
+                int bucket = bucketOf(curX, curY);
+                if (bucket != lastBucket) {
+                    addSnake(bucket, index);
+                    lastBucket = bucket;
+                }
+            }
+        }
+    }
+
+    private void addSnake(int bucket, int index) {
+        int count = bucketSnakeCounts[bucket];
+        if (count > 0 && bucketSnakes[bucket][count - 1] == index) {
+            return;
+        }
+        bucketSnakes[bucket] = append(bucketSnakes[bucket], count, index);
+        bucketSnakeCounts[bucket]++;
+    }
+
+    private static int[] append(int[] items, int size, int value) {
+        if (items == null) {
+            items = new int[4];
+        }
+        else if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size] = value;
+        return items;
+    }
+
+    int[] getHead(int playerId) {
+        return heads.get(playerId);
+    }
+
+    SnakesProto.GameState forCenter(int centerX, int centerY, int radius) {
+        int[] columns = bucketRange(centerX, radius, width, bucketsX);
+        int[] rows = bucketRange(centerY, radius, height, bucketsY);
+        stamp++;
+
+        SnakesProto.GameState.Builder builder = SnakesProto.GameState.newBuilder();
+        builder.setStateOrder(state.getStateOrder());
+        for (int row : rows) {
+            for (int column : columns) {
+                int bucket = row * bucketsX + column;
+                for (int k = 0; k < bucketSnakeCounts[bucket]; ++k) {
+                    int index = bucketSnakes[bucket][k];
+                    if (seen[index] != stamp) {
+                        seen[index] = stamp;
+                        builder.addSnakes(state.getSnakes(index));
+                    }
+                }
+                for (int k = 0; k < bucketFoodCounts[bucket]; ++k) {
+                    SnakesProto.GameState.Coord food = state.getFoods(bucketFood[bucket][k]);
+                    if (distance(food.getX(), centerX, width) <= radius
+                            && distance(food.getY(), centerY, height) <= radius) {
+                        builder.addFoods(food);
+                    }
+                }
+            }
+        }
+        builder.setPlayers(state.getPlayers());
+        builder.setConfig(state.getConfig());
+        builder.setUnknownFields(ProtocolExtensions.areaFields(centerX, centerY, radius, summary));
+        return builder.build();
+    }
+
+    // Номера корзин по одной оси, которые задевает отрезок [center - radius, center + radius] на замкнутом поле
+    private int[] bucketRange(int center, int radius, int size, int buckets) {
+        if (2 * radius + 1 >= size) {
+            int[] all = new int[buckets];
+            for (int i = 0; i < buckets; ++i) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] result = new int[buckets];
+        int count = 0;
+        boolean[] taken = new boolean[buckets];
+        for (int offset = -radius; offset <= radius; ++offset) {
+            int bucket = Math.floorMod(center + offset, size) / bucketSize;
+            if (!taken[bucket]) {
+                taken[bucket] = true;
+                result[count++] = bucket;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int distance(int a, int b, int size) {
+        int direct = Math.abs(a - b);
+        return Math.min(direct, size - direct);
+    }
+}
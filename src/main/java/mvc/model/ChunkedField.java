@@ -0,0 +1,216 @@
+package mvc.model;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/*
+ * Разреженное поле для больших арен: квадратные участки CHUNK_SIZE x CHUNK_SIZE клеток.
+ * Участок заводится при записи первой непустой клетки и возвращается в запас, когда в нём снова пусто,
+ * так что память и очистка поля пропорциональны занятым участкам, а не площади.
+ * Для каждого участка хранится число непустых клеток - по нему пустая клетка с заданным номером
+ * находится без обхода всего поля.
+ */
+public class ChunkedField implements Field {
+    private final static GameModel.CellType[] CELL_TYPES = GameModel.CellType.values();
+    final static int CHUNK_SHIFT = 6;
+    final static int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private final static int CHUNK_MASK = CHUNK_SIZE - 1;
+    private final static int SPAWN_ATTEMPTS = 256;
+
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int chunksY;
+    private final byte[][] chunks;
+    private final int[] occupied;
+    private final long[] chunkHash;
+    private final ConcurrentLinkedDeque<byte[]> spareChunks;
+
+    public ChunkedField(int width, int height) {
+        this.width = width;
+        this.height = height;
+        chunksX = (width + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        chunksY = (height + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        chunks = new byte[chunksX * chunksY][];
+        occupied = new int[chunksX * chunksY];
+        chunkHash = new long[chunksX * chunksY];
+        spareChunks = new ConcurrentLinkedDeque<>();
+    }
+
+    private ChunkedField(ChunkedField other) {
+        width = other.width;
+        height = other.height;
+        chunksX = other.chunksX;
+        chunksY = other.chunksY;
+        chunks = new byte[other.chunks.length][];
+        for (int i = 0; i < chunks.length; ++i) {
+            if (other.chunks[i] != null) {
+                chunks[i] = other.chunks[i].clone();
+            }
+        }
+        occupied = other.occupied.clone();
+        chunkHash = other.chunkHash.clone();
+        spareChunks = new ConcurrentLinkedDeque<>();
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getOrdinal(int x, int y) {
+        byte[] chunk = chunks[(y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT)];
+        return chunk == null ? 0 : chunk[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)];
+    }
+
+    @Override
+    public GameModel.CellType get(int x, int y) {
+        return CELL_TYPES[getOrdinal(x, y)];
+    }
+
+    @Override
+    public void set(int x, int y, GameModel.CellType type) {
+        int chunkIndex = (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+        byte ordinal = (byte) type.ordinal();
+        byte[] chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            if (ordinal == 0) {
+                return;
+            }
+            chunk = spareChunks.poll();
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            }
+            chunks[chunkIndex] = chunk;
+        }
+        int index = ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+        if (chunk[index] == 0 && ordinal != 0) {
+            occupied[chunkIndex]++;
+        }
+        else if (chunk[index] != 0 && ordinal == 0) {
+            occupied[chunkIndex]--;
+        }
+        if (chunk[index] != ordinal) {
+            chunkHash[chunkIndex] ^= Field.cellHash(x, y, chunk[index]) ^ Field.cellHash(x, y, ordinal);
+        }
+        chunk[index] = ordinal;
+        if (occupied[chunkIndex] == 0) {
+            releaseChunk(chunkIndex);
+        }
+    }
+
+    private void releaseChunk(int chunkIndex) {
+        byte[] chunk = chunks[chunkIndex];
+        Arrays.fill(chunk, (byte) 0);
+        chunks[chunkIndex] = null;
+        occupied[chunkIndex] = 0;
+        chunkHash[chunkIndex] = 0L;
+        spareChunks.offer(chunk);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < chunks.length; ++i) {
+            if (chunks[i] != null) {
+                releaseChunk(i);
+            }
+        }
+    }
+
+    @Override
+    public int getBandHeight() {
+        return CHUNK_SIZE;
+    }
+
+    @Override
+    public long getHash() {
+        long hash = 0L;
+        for (long value : chunkHash) {
+            hash ^= value;
+        }
+        return hash;
+    }
+
+    @Override
+    public int getEmptyCount() {
+        int empty = width * height;
+        for (int count : occupied) {
+            empty -= count;
+        }
+        return empty;
+    }
+
+    private int chunkWidth(int chunkX) {
+        return Math.min(CHUNK_SIZE, width - (chunkX << CHUNK_SHIFT));
+    }
+
+    private int chunkHeight(int chunkY) {
+        return Math.min(CHUNK_SIZE, height - (chunkY << CHUNK_SHIFT));
+    }
+
+    // Сначала участок по числам пустых клеток, затем клетка внутри него
+    @Override
+    public void findEmpty(int n, int[] result) {
+        int remaining = n;
+        for (int chunkIndex = 0; chunkIndex < chunks.length; ++chunkIndex) {
+            int chunkX = chunkIndex % chunksX;
+            int chunkY = chunkIndex / chunksX;
+            int chunkWidth = chunkWidth(chunkX);
+            int empty = chunkWidth * chunkHeight(chunkY) - occupied[chunkIndex];
+            if (remaining >= empty) {
+                remaining -= empty;
+                continue;
+            }
+            byte[] chunk = chunks[chunkIndex];
+            if (chunk == null) {
+                result[0] = (chunkX << CHUNK_SHIFT) + remaining % chunkWidth;
+                result[1] = (chunkY << CHUNK_SHIFT) + remaining / chunkWidth;
+                return;
+            }
+            for (int ly = 0; ly < chunkHeight(chunkY); ++ly) {
+                for (int lx = 0; lx < chunkWidth; ++lx) {
+                    if (chunk[(ly << CHUNK_SHIFT) | lx] == 0 && remaining-- == 0) {
+                        result[0] = (chunkX << CHUNK_SHIFT) + lx;
+                        result[1] = (chunkY << CHUNK_SHIFT) + ly;
+                        return;
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("Нет пустой клетки с номером " + n);
+    }
+
+    // Полный перебор на большом поле слишком дорог, поэтому углы квадрата пробуются в случайных пустых клетках
+    @Override
+    public boolean findFreeSquare(int size, SplittableRandom random, int[] result) {
+        if (size > width || size > height) {
+            return false;
+        }
+        int emptyCount = getEmptyCount();
+        int[] candidate = new int[2];
+        for (int attempt = 0; attempt < SPAWN_ATTEMPTS && emptyCount > 0; ++attempt) {
+            findEmpty(random.nextInt(emptyCount), candidate);
+            if (candidate[0] > width - size || candidate[1] > height - size) {
+                continue;
+            }
+            if (DenseField.isFreeSquare(this, candidate[0], candidate[1], size)) {
+                result[0] = candidate[0];
+                result[1] = candidate[1];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Field copy() {
+        return new ChunkedField(this);
+    }
+}
@@ -0,0 +1,159 @@
+package mvc.model;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * Всё поле одним массивом, построчно: индекс y * width + x.
+ */
+public class DenseField implements Field {
+    private final static GameModel.CellType[] CELL_TYPES = GameModel.CellType.values();
+    private final static int BAND_HEIGHT = 8;
+
+    private final int width;
+    private final int height;
+    private final byte[] cells;
+    // непустых клеток в каждой строке
+    private final int[] rowOccupied;
+    // хеш каждой строки, у полос свои строки, так что параллельная запись его не портит
+    private final long[] rowHash;
+
+    public DenseField(int width, int height) {
+        this.width = width;
+        this.height = height;
+        cells = new byte[width * height];
+        rowOccupied = new int[height];
+        rowHash = new long[height];
+    }
+
+    private DenseField(DenseField other) {
+        width = other.width;
+        height = other.height;
+        cells = other.cells.clone();
+        rowOccupied = other.rowOccupied.clone();
+        rowHash = other.rowHash.clone();
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getOrdinal(int x, int y) {
+        return cells[y * width + x];
+    }
+
+    @Override
+    public GameModel.CellType get(int x, int y) {
+        return CELL_TYPES[cells[y * width + x]];
+    }
+
+    @Override
+    public void set(int x, int y, GameModel.CellType type) {
+        int index = y * width + x;
+        byte ordinal = (byte) type.ordinal();
+        if (cells[index] == 0 && ordinal != 0) {
+            rowOccupied[y]++;
+        }
+        else if (cells[index] != 0 && ordinal == 0) {
+            rowOccupied[y]--;
+        }
+        if (cells[index] != ordinal) {
+            rowHash[y] ^= Field.cellHash(x, y, cells[index]) ^ Field.cellHash(x, y, ordinal);
+        }
+        cells[index] = ordinal;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(cells, (byte) 0);
+        Arrays.fill(rowOccupied, 0);
+        Arrays.fill(rowHash, 0L);
+    }
+
+    @Override
+    public int getBandHeight() {
+        return BAND_HEIGHT;
+    }
+
+    @Override
+    public long getHash() {
+        long hash = 0L;
+        for (long row : rowHash) {
+            hash ^= row;
+        }
+        return hash;
+    }
+
+    @Override
+    public int getEmptyCount() {
+        int empty = width * height;
+        for (int occupied : rowOccupied) {
+            empty -= occupied;
+        }
+        return empty;
+    }
+
+    // Строки, где пустых меньше оставшегося номера, пропускаются целиком по rowOccupied
+    @Override
+    public void findEmpty(int n, int[] result) {
+        int remaining = n;
+        for (int y = 0; y < height; ++y) {
+            int empty = width - rowOccupied[y];
+            if (remaining >= empty) {
+                remaining -= empty;
+                continue;
+            }
+            if (rowOccupied[y] == 0) {
+                result[0] = remaining;
+                result[1] = y;
+                return;
+            }
+            for (int x = 0, index = y * width; x < width; ++x, ++index) {
+                if (cells[index] == 0 && remaining-- == 0) {
+                    result[0] = x;
+                    result[1] = y;
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Нет пустой клетки с номером " + n);
+    }
+
+    // Первый подходящий квадрат при обходе по столбцам, как и раньше
+    @Override
+    public boolean findFreeSquare(int size, SplittableRandom random, int[] result) {
+        for (int i = 0; i <= width - size; ++i) {
+            for (int j = 0; j <= height - size; ++j) {
+                if (isFreeSquare(this, i, j, size)) {
+                    result[0] = i;
+                    result[1] = j;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isFreeSquare(Field field, int x, int y, int size) {
+        for (int ii = x; ii < x + size; ++ii) {
+            for (int jj = y; jj < y + size; ++jj) {
+                if (field.getOrdinal(ii, jj) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Field copy() {
+        return new DenseField(this);
+    }
+}
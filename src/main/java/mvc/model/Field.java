@@ -0,0 +1,76 @@
+package mvc.model;
+
+import net.protocol.Constants;
+
+import java.util.SplittableRandom;
+
+/*
+ * Клетки игрового поля. Хранятся порядковые номера GameModel.CellType, EMPTY - ноль.
+ * Реализации: DenseField - один массив на всё поле, ChunkedField - квадратные участки,
+ * которые заводятся при первой непустой клетке и отдаются обратно, когда участок снова пуст.
+ * Поле делится на полосы по getBandHeight() строк: set из разных потоков допустим,
+ * если каждый поток пишет только в свою полосу (так параллельный ход рисует тела змей).
+ * Поле ведёт хеш содержимого в духе Зобриста: XOR cellHash по всем непустым клеткам, обновляется в set.
+ * Хешируется только голова, тело, еда: своя, чужая и зомби-змея рисуются по-разному в зависимости от того,
+ * кто смотрит, а хеш у мастера и узлов с одним состоянием должен совпадать.
+ */
+public interface Field {
+    // тип клетки для хеша
+    GameModel.CellType[] HASHED_TYPE = {
+            GameModel.CellType.EMPTY,
+            GameModel.CellType.ENEMY_HEAD,
+            GameModel.CellType.ENEMY_BODY,
+            GameModel.CellType.ENEMY_HEAD,
+            GameModel.CellType.ENEMY_BODY,
+            GameModel.CellType.ENEMY_HEAD,
+            GameModel.CellType.ENEMY_BODY,
+            GameModel.CellType.FOOD
+    };
+
+    int getWidth();
+
+    int getHeight();
+
+    int getOrdinal(int x, int y);
+
+    GameModel.CellType get(int x, int y);
+
+    void set(int x, int y, GameModel.CellType type);
+
+    void clear();
+
+    int getBandHeight();
+
+    // Как и getEmptyCount, собирается по строкам или участкам
+    long getHash();
+
+    // Считается по занятости строк или участков, поэтому вызывать не из параллельной записи
+    int getEmptyCount();
+
+    // Координаты n-й (с нуля) пустой клетки, n < getEmptyCount()
+    void findEmpty(int n, int[] result);
+
+    // Левый верхний угол свободного квадрата size x size, не переходящего через край поля; false - места нет
+    boolean findFreeSquare(int size, SplittableRandom random, int[] result);
+
+    // Копия для снимка, после создания не меняется
+    Field copy();
+
+    static long cellHash(int x, int y, int ordinal) {
+        int type = HASHED_TYPE[ordinal].ordinal();
+        if (type == 0) {
+            return 0L;
+        }
+        long z = (((long) x << 32) | (y & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L + type;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static Field create(int width, int height) {
+        if (Constants.CHUNKED_FIELD || (long) width * height > Constants.DENSE_FIELD_MAX_CELLS) {
+            return new ChunkedField(width, height);
+        }
+        return new DenseField(width, height);
+    }
+}
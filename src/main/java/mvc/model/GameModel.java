@@ -1,6 +1,5 @@
 package mvc.model;
 
-import javafx.application.Platform;
 import main.java.net.protocol.SnakesProto;
 import mvc.controller.GameController;
 import mvc.view.GameView;
@@ -8,19 +7,23 @@ import net.client.AnnouncementPinger;
 import net.client.UnicastReceiver;
 import net.client.UnicastSender;
 import net.protocol.Constants;
+import net.protocol.LockstepFrame;
+import net.protocol.ProtocolExtensions;
+import replay.GameRecorder;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class GameModel {
 
     private GameController controller;
-    private GameView gameView;
+    private volatile GameView gameView;
 
     private final int fieldWidth;
     private final int fieldHeight;
@@ -31,34 +34,64 @@ public final class GameModel {
     private final int pingDelay;
     private final int nodeTimeout;
 
-    private int myId = -1;
+    /*
+     * Состояние игры меняется только в потоке игры (gameExecutor): ходы, вход и выход игроков,
+     * смена ролей и применение присланного состояния приходят туда командами через execute().
+     * Карты игроков и змей остаются потокобезопасными, потому что их читают потоки приёма и отправки
+     * (поиск игрока по адресу, пинги) и поток интерфейса при отрисовке.
+     */
+    private volatile int myId = -1;
+    private volatile GameSnapshot snapshot;
+    private long snapshotSequence = 0;
     private Map<Integer, Player> gamePlayers;
     private Map<Integer, Snake> snakeMap;
     private List<int[]> food;
-    private Queue<Map.Entry<Integer, SnakesProto.GameMessage.SteerMsg>> steerMsgQueue;
+    private SteerSlots steerSlots;
     private Map<Integer, Set<Long>> msgSeqMap;
-    private Map<Integer, Long> lastSteerMsg;
-    private int lastMsgSeq = 1;
+    private final AtomicLong lastMsgSeq = new AtomicLong(1);
     private int lastId = 1;
-    private int stateOrder = 1;
+    private volatile int stateOrder = 1;
     private int activePlayers = 0;
-    private boolean hasDeputy = false;
+    private volatile boolean hasDeputy = false;
 
     private SnakesProto.GameConfig gameConfig;
-    private SnakesProto.NodeRole myNodeRole;
-    private Timer announcementPinger;
+    private volatile SnakesProto.NodeRole myNodeRole;
+    private ScheduledExecutorService gameExecutor;
+    private ScheduledFuture<?> announcementFuture;
     private UnicastSender unicastSender;
     private Thread unicastSenderThread;
     private UnicastReceiver unicastReceiver;
     private Thread unicastReceiverThread;
     private DatagramSocket unicastSocket;
     private GameStateUpdater gameStateUpdater;
-    private Timer gameStateUpdaterTimer;
-
-    private InetAddress masterInetAddress;
-    private int masterPort;
-    private InetAddress deputyInetAddress;
-    private int deputyPort;
+    private ScheduledFuture<?> gameStateUpdaterFuture;
+    private AnnouncementPinger announcementTask;
+    // когда пришло последнее состояние от мастера, 0 - не приходило
+    private long lastStateTime = 0L;
+    private TickListener tickListener;
+    private GameRecorder recorder;
+    // lockstep, только поток игры: кадры, пришедшие раньше предыдущих, и ожидание полного состояния после расхождения
+    private final TreeMap<Integer, LockstepFrame> pendingFrames = new TreeMap<>();
+    private boolean awaitingResync = false;
+    private final AtomicLong lockstepDesyncs = new AtomicLong();
+    private final AtomicLong fieldHashMismatches = new AtomicLong();
+    // узлы, попросившие полное состояние вместо следующего кадра
+    private final Set<Integer> fullStateRequests = ConcurrentHashMap.newKeySet();
+    /*
+     * Предсказание своей змеи, только поток игры: отправленные мастеру повороты (msg_seq, направление, время),
+     * которых он ещё не применил. Пока такие есть, в снимок вместо своей змеи из состояния
+     * рисуется её копия, повёрнутая последним из них и сдвинутая на ход вперёд.
+     */
+    private final List<long[]> pendingSteers = new ArrayList<>();
+
+    private interface CellVisitor {
+        void visit(int x, int y);
+    }
+
+    private volatile InetAddress masterInetAddress;
+    private volatile int masterPort;
+    private volatile InetAddress deputyInetAddress;
+    private volatile int deputyPort;
 
     public enum CellType {
         EMPTY,
@@ -71,7 +104,11 @@ public final class GameModel {
         FOOD
     }
 
-    private CellType[][] cells;
+    private Field field;
+    // все случайные решения игры (место новой змеи, еда), только поток игры; зерно - в конфигурации игры
+    private SplittableRandom random;
+    // по умолчанию из Constants.PARALLEL_TICK; отдельно у модели, чтобы оба хода можно было сравнить в одном процессе
+    private boolean parallelTick = Constants.PARALLEL_TICK;
 
     public GameModel(int fieldWidth, int fieldHeight, int foodStatic, float foodPerPlayer,
                      int stateDelay, float deadFoodProb, int pingDelay, int nodeTimeout,
@@ -90,8 +127,12 @@ public final class GameModel {
         initFields();
         initUnicastClient();
 
-        createFirstPlayer(name);
-        addNecessaryFood();
+        // состояние игры меняет только поток игры, в том числе первое
+        execute(() -> {
+            createFirstPlayer(name);
+            addNecessaryFood();
+            publishSnapshot(buildGameState(stateOrder));
+        });
 
         if (nodeRole == SnakesProto.NodeRole.MASTER) {
             initMaster();
@@ -120,21 +161,42 @@ public final class GameModel {
         SnakesProto.GameMessage.JoinMsg.Builder joinMsg = SnakesProto.GameMessage.JoinMsg.newBuilder();
         joinMsg.setName(name);
         gameMessageBuilder.setJoin(joinMsg);
-        gameMessageBuilder.setMsgSeq(lastMsgSeq);
-        iterateLastMsqSeq();
+        gameMessageBuilder.setMsgSeq(nextMsgSeq());
         unicastSender.sendMessage(gameMessageBuilder.build(), masterInetAddress, masterPort);
     }
 
+    // Модель без сети, только для просмотра записи игры
+    public GameModel(SnakesProto.GameConfig config) {
+        gameConfig = config;
+        this.fieldWidth = config.getWidth();
+        this.fieldHeight = config.getHeight();
+        this.foodStatic = config.getFoodStatic();
+        this.foodPerPlayer = config.getFoodPerPlayer();
+        this.stateDelay = config.getStateDelayMs();
+        this.deadFoodProb = config.getDeadFoodProb();
+        this.pingDelay = config.getPingDelayMs();
+        this.nodeTimeout = config.getNodeTimeoutMs();
+        this.myNodeRole = SnakesProto.NodeRole.VIEWER;
+
+        initFields();
+    }
+
     private void initFields() {
+        gameExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-loop");
+            thread.setDaemon(true);
+            return thread;
+        });
         controller = new GameController(this);
-        cells = new CellType[fieldWidth][fieldHeight];
-        clearField();
-        snakeMap = new ConcurrentHashMap<>();
-        steerMsgQueue = new ConcurrentLinkedDeque<>();
+        field = Field.create(fieldWidth, fieldHeight);
+        random = new SplittableRandom(ProtocolExtensions.getGameSeed(gameConfig));
+        // обход змей по возрастанию id: от порядка зависят столкновения и съеденная еда, а в режиме lockstep
+        // узлы должны повторять ход мастера в точности
+        snakeMap = new ConcurrentSkipListMap<>();
+        steerSlots = new SteerSlots();
         food = new ArrayList<>();
         gamePlayers = new ConcurrentHashMap<>();
         msgSeqMap = new ConcurrentHashMap<>();
-        lastSteerMsg = new ConcurrentHashMap<>();
     }
 
     private void initUnicastClient() throws IOException {
@@ -150,9 +212,7 @@ public final class GameModel {
 
     public void fillCells() {
         clearField();
-        for (Snake snake : snakeMap.values()) {
-            addSnakeBodyToField(snake);
-        }
+        addSnakeBodiesToField();
         for (Snake snake : snakeMap.values()) {
             addSnakeHeadToField(snake);
         }
@@ -160,12 +220,23 @@ public final class GameModel {
     }
 
     private void initMaster() throws IOException {
-        announcementPinger = new Timer();
-        announcementPinger.schedule(new AnnouncementPinger(this),
-                0, Constants.ANNOUNCEMENT_PING_PERIOD);
+        if (Constants.RECORD_DIRECTORY != null && recorder == null) {
+            recorder = new GameRecorder(Paths.get(Constants.RECORD_DIRECTORY),
+                    "game-" + System.currentTimeMillis(), Constants.RECORD_SEGMENT_SIZE,
+                    GameRecorder.FsyncPolicy.valueOf(Constants.RECORD_FSYNC_POLICY),
+                    Constants.RECORD_FSYNC_INTERVAL, Constants.RECORD_KEYFRAME_INTERVAL);
+        }
+        long firstTickDelay = stateDelay;
+        if (lastStateTime != 0L) {
+            // повышение: первый ход там, где его сделал бы прежний мастер, а не через полный период
+            firstTickDelay = Math.max(0, stateDelay - (System.currentTimeMillis() - lastStateTime));
+        }
+        announcementTask = new AnnouncementPinger(this);
         gameStateUpdater = new GameStateUpdater(this);
-        gameStateUpdaterTimer = new Timer();
-        gameStateUpdaterTimer.schedule(gameStateUpdater, stateDelay, stateDelay);
+        announcementFuture = gameExecutor.scheduleAtFixedRate(guarded(announcementTask),
+                0, Constants.ANNOUNCEMENT_PING_PERIOD, TimeUnit.MILLISECONDS);
+        gameStateUpdaterFuture = gameExecutor.scheduleAtFixedRate(guarded(gameStateUpdater),
+                firstTickDelay, stateDelay, TimeUnit.MILLISECONDS);
         tryFindDeputy();
     }
 
@@ -178,38 +249,21 @@ public final class GameModel {
     }
 
     private Snake findPlaceAndCreateSnake(int id) {
-        int stX = -1;
-        int stY = -1;
-        for (int i = 0; i <= fieldWidth - 5; ++i) {
-            for (int j = 0; j <= fieldHeight - 5; ++j) {
-                boolean ok = true;
-                for (int ii = i; ii < i + 5; ++ii) {
-                    for (int jj = j; jj < j + 5; ++jj) {
-                        if (cells[ii][jj] != CellType.EMPTY) {
-                            ok = false;
-                            break;
-                        }
-                    }
-                }
-                if (ok) {
-                    stX = i;
-                    stY = j;
-                    break;
-                }
-            }
-            if (stX >= 0) {
-                break;
-            }
-        }
-        if (stX < 0) {
+        int[] place = new int[2];
+        if (!field.findFreeSquare(5, random, place)) {
             return null;
         }
 
-        return new Snake(this, id, stX + 2, stY + 2,
-                SnakesProto.Direction.values()[(new Random()).nextInt(4)]);
+        return new Snake(this, id, place[0] + 2, place[1] + 2,
+                SnakesProto.Direction.values()[random.nextInt(4)]);
     }
 
     public void addSnakeBodyToField(Snake snake) {
+        addSnakeBodyToField(snake, 0, fieldHeight);
+    }
+
+    // Только клетки тела в строках [fromY, toY): параллельный ход рисует так каждую полосу поля отдельно
+    void addSnakeBodyToField(Snake snake, int fromY, int toY) {
         List<int[]> points = snake.getKeyPoints();
         int curX = points.get(0)[0];
         int curY = points.get(0)[1];
@@ -225,32 +279,131 @@ public final class GameModel {
             type = CellType.ENEMY_BODY;
         }
         for (int i = 1; i < points.size(); ++i) {
+            int row = Math.floorMod(curY, fieldHeight);
+            boolean rowInBand = row >= fromY && row < toY;
             if (points.get(i)[0] > 0) {
-                for (int j = 1; j <= points.get(i)[0]; ++j) {
-                    cells[Math.floorMod(curX + j, fieldWidth)][Math.floorMod(curY, fieldHeight)] = type;
+                for (int j = 1; rowInBand && j <= points.get(i)[0]; ++j) {
+                    field.set(Math.floorMod(curX + j, fieldWidth), row, type);
                 }
                 curX += points.get(i)[0];
             }
             if (points.get(i)[0] < 0) {
-                for (int j = -1; j >= points.get(i)[0]; --j) {
-                    cells[Math.floorMod(curX + j, fieldWidth)][Math.floorMod(curY, fieldHeight)] = type;
+                for (int j = -1; rowInBand && j >= points.get(i)[0]; --j) {
+                    field.set(Math.floorMod(curX + j, fieldWidth), row, type);
                 }
                 curX += points.get(i)[0];
             }
-            if (points.get(i)[1] > 0) {
-                for (int j = 1; j <= points.get(i)[1]; ++j) {
-                    cells[Math.floorMod(curX, fieldWidth)][Math.floorMod(curY + j, fieldHeight)] = type;
-                }
+            if (points.get(i)[1] != 0) {
+                addColumnToField(Math.floorMod(curX, fieldWidth), curY, points.get(i)[1], fromY, toY, type);
                 curY += points.get(i)[1];
             }
-            if (points.get(i)[1] < 0) {
-                for (int j = -1; j >= points.get(i)[1]; --j) {
-                    cells[Math.floorMod(curX, fieldWidth)][Math.floorMod(curY + j, fieldHeight)] = type;
+        }
+
+    }
+
+    // Вертикальный отрезок из клетки (x, startY) длиной |dy| без неё самой; перебираются только строки из [fromY, toY)
+    private void addColumnToField(int x, int startY, int dy, int fromY, int toY, CellType type) {
+        int step = dy > 0 ? 1 : -1;
+        int length = Math.abs(dy);
+        int firstRow = Math.floorMod(startY + step, fieldHeight);
+        // номер шага, на котором отрезок впервые входит в полосу, дальше вхождения повторяются через fieldHeight
+        int entry = step > 0
+                ? Math.floorMod(fromY - firstRow, fieldHeight)
+                : Math.floorMod(firstRow - (toY - 1), fieldHeight);
+        for (int start = entry - fieldHeight; start < length; start += fieldHeight) {
+            int end = Math.min(length, start + toY - fromY);
+            for (int k = Math.max(0, start); k < end; ++k) {
+                field.set(x, Math.floorMod(firstRow + step * k, fieldHeight), type);
+            }
+        }
+    }
+
+    // Тела всех змей; при большом числе змей - параллельно по полосам поля, результат тот же
+    public void addSnakeBodiesToField() {
+        if (ParallelTick.isEnabled(parallelTick, snakeMap.size())) {
+            ParallelTick.paintBodies(this, field, new ArrayList<>(snakeMap.values()));
+            return;
+        }
+        for (Snake snake : snakeMap.values()) {
+            addSnakeBodyToField(snake);
+        }
+    }
+
+    void setParallelTick(boolean parallelTick) {
+        this.parallelTick = parallelTick;
+    }
+
+    // Ход всех змей без столкновений: сдвиг и поедание еды
+    public void moveSnakes() {
+        if (ParallelTick.isEnabled(parallelTick, snakeMap.size())) {
+            ParallelTick.moveSnakes(new ArrayList<>(snakeMap.values()));
+            return;
+        }
+        for (Snake snake : snakeMap.values()) {
+            snake.makeMove();
+        }
+    }
+
+    /*
+     * Ход движка после применения поворотов, возвращает позицию в getFood(), с которой начинается еда этого хода.
+     * addedFood == null - ход мастера: погибшие змеи оставляют еду, недостающая досыпается случайно.
+     * Иначе ход по кадру lockstep: змеи убираются без сообщений и смены ролей, а вся новая еда берётся из кадра.
+     */
+    int simulateTick(List<int[]> addedFood) {
+        moveSnakes();
+        int foodMark = food.size();
+        clearField();
+        addSnakeBodiesToField();
+        for (Snake snake : snakeMap.values()) {
+            int ret = addSnakeHeadToField(snake);
+            if (ret == 0) {
+                continue;
+            }
+            if (ret == 2) {
+                removeSnake(snake, addedFood == null);
+            }
+            for (Snake snake1 : snakeMap.values()) {
+                if (snake.equals(snake1)) {
+                    continue;
+                }
+                if (Arrays.equals(snake.getKeyPoints().get(0), snake1.getKeyPoints().get(0))) {
+                    removeSnake(snake1, addedFood == null);
                 }
-                curY += points.get(i)[1];
             }
+            removeSnake(snake, addedFood == null);
         }
 
+        if (addedFood == null) {
+            addNecessaryFood();
+        }
+        else {
+            for (int[] cell : addedFood) {
+                food.add(new int[] {cell[0], cell[1]});
+            }
+        }
+        fillCells();
+        return foodMark;
+    }
+
+    private void removeSnake(Snake snake, boolean authoritative) {
+        if (authoritative) {
+            removeSnake(snake);
+        }
+        else {
+            dropSnake(snake);
+        }
+    }
+
+    // Гибель змеи при ходе по кадру lockstep: еду с тела пришлёт мастер, роли и сообщения - тоже его забота
+    private void dropSnake(Snake snake) {
+        if (snakeMap.remove(snake.getId()) == null
+                || snake.getState() == SnakesProto.GameState.Snake.SnakeState.ZOMBIE) {
+            return;
+        }
+        Player player = gamePlayers.get(snake.getId());
+        if (player != null) {
+            player.setNodeRole(SnakesProto.NodeRole.VIEWER);
+        }
     }
 
     public int addSnakeHeadToField(Snake snake) {
@@ -268,19 +421,21 @@ public final class GameModel {
         else {
             type = CellType.ENEMY_HEAD;
         }
-        if (cells[points.get(0)[0]][points.get(0)[1]] == CellType.EMPTY) {
-            cells[points.get(0)[0]][points.get(0)[1]] = type;
+        CellType current = field.get(points.get(0)[0], points.get(0)[1]);
+        if (current == CellType.EMPTY) {
+            field.set(points.get(0)[0], points.get(0)[1], type);
             return 0;
         }
-        else if (cells[points.get(0)[0]][points.get(0)[1]] == CellType.ENEMY_HEAD) {
+        else if (current == CellType.ENEMY_HEAD) {
             return 1;
         }
         return 2;
     }
 
+    // Еда ставится в случайные пустые клетки, поле само находит пустую клетку по номеру
     public void addNecessaryFood() {
-        List<int[]> emptyCells = getEmptyCells();
-        if (emptyCells.isEmpty()) {
+        int emptyCount = field.getEmptyCount();
+        if (emptyCount == 0) {
             return;
         }
         int currentFood = food.size();
@@ -288,44 +443,31 @@ public final class GameModel {
         if (necessaryFood - currentFood <= 0) {
             return;
         }
-        int toAdd = Math.min(necessaryFood - currentFood, emptyCells.size());
-        Random random = new Random();
+        int toAdd = Math.min(necessaryFood - currentFood, emptyCount);
+        int[] cell = new int[2];
         for (int i = 0; i < toAdd; ++i) {
-            int j = random.nextInt(emptyCells.size());
-            food.add(new int[] {emptyCells.get(j)[0], emptyCells.get(j)[1]});
-            cells[emptyCells.get(j)[0]][emptyCells.get(j)[1]] = CellType.FOOD;
-            emptyCells.remove(j);
+            field.findEmpty(random.nextInt(emptyCount--), cell);
+            food.add(new int[] {cell[0], cell[1]});
+            field.set(cell[0], cell[1], CellType.FOOD);
         }
     }
 
     public void updateFood() {
         for (int[] f : food) {
-            cells[f[0]][f[1]] = CellType.FOOD;
+            field.set(f[0], f[1], CellType.FOOD);
         }
     }
 
-    public List<int[]> getEmptyCells() {
-        List<int[]> result = new ArrayList<>();
-        for (int i = 0; i < fieldWidth; ++i) {
-            for (int j = 0; j < fieldHeight; ++j) {
-                if (cells[i][j] == CellType.EMPTY) {
-                    result.add(new int[] {i, j});
-                }
-            }
-        }
-        return result;
+    Field getField() {
+        return field;
     }
 
     public CellType getCellTypeByCoordinates(int x, int y) {
-        return cells[x][y];
+        return field.get(x, y);
     }
 
     public void clearField() {
-        for (int i = 0; i < fieldWidth; ++i) {
-            for (int j = 0; j < fieldHeight; ++j) {
-                cells[i][j] = CellType.EMPTY;
-            }
-        }
+        field.clear();
     }
 
     public int getFoodStatic() {
@@ -352,10 +494,6 @@ public final class GameModel {
         return controller;
     }
 
-    public CellType[][] getCells() {
-        return cells;
-    }
-
     public void removeFood(int x, int y) {
         for (int i = 0; i < food.size(); ++i) {
             if (food.get(i)[0] == x && food.get(i)[1] == y) {
@@ -375,13 +513,122 @@ public final class GameModel {
         gameConfigBuilder.setDeadFoodProb(deadFoodProb);
         gameConfigBuilder.setPingDelayMs(pingDelay);
         gameConfigBuilder.setNodeTimeoutMs(nodeTimeout);
+        long seed = Constants.GAME_SEED != null ? Constants.GAME_SEED : new SplittableRandom().nextLong();
+        gameConfigBuilder.setUnknownFields(ProtocolExtensions.gameSeedFields(seed));
         gameConfig = gameConfigBuilder.build();
+        System.out.println("Зерно игры: " + seed);
     }
 
     public SnakesProto.GameConfig getGameConfig() {
         return gameConfig;
     }
 
+    /*
+     * Состояние не обходит клетки поля: по протоколу это опорные точки змей и список еды, так что сборка
+     * стоит O(змей + еды) при любом размере поля. Делить его по участкам ChunkedField нельзя - змея
+     * передаётся целиком, а порядок еды важен для lockstep и записи. Урезание по месту делает AreaOfInterest.
+     */
+    public SnakesProto.GameState buildGameState(int order) {
+        SnakesProto.GameState.Builder gameState = SnakesProto.GameState.newBuilder();
+        gameState.setStateOrder(order);
+        for (Snake snake : snakeMap.values()) {
+            gameState.addSnakes(snake.convertSnakeForMsg());
+        }
+        for (int[] f : food) {
+            SnakesProto.GameState.Coord.Builder coordsBuilder = SnakesProto.GameState.Coord.newBuilder();
+            coordsBuilder.setX(f[0]);
+            coordsBuilder.setY(f[1]);
+            gameState.addFoods(coordsBuilder);
+        }
+        gameState.setPlayers(getGamePlayers());
+        gameState.setConfig(gameConfig);
+        if (Constants.FIELD_HASH) {
+            gameState.setUnknownFields(ProtocolExtensions.fieldHashFields(field.getHash()));
+        }
+        return gameState.build();
+    }
+
+    // Вызывается только из потока игры, когда поле и игроки соответствуют state
+    void publishSnapshot(SnakesProto.GameState state) {
+        Field cells = field.copy();
+        if (!pendingSteers.isEmpty()) {
+            predictMySnake(cells);
+        }
+        snapshot = new GameSnapshot(cells, state.getPlayers(), state,
+                ++snapshotSequence);
+        GameView view = gameView;
+        if (view != null) {
+            view.onSnapshotPublished(snapshot);
+        }
+    }
+
+    // Поворот уже отправлен мастеру; показываем его сразу, не дожидаясь состояния с ним
+    public void predictSteer(long msgSeq, SnakesProto.Direction direction) {
+        if (!Constants.CLIENT_PREDICTION || !unicastSender.getPeerFeatures()
+                .supports(masterInetAddress, masterPort, ProtocolExtensions.FEATURE_STEER_ACK)) {
+            return;
+        }
+        execute(() -> {
+            if (myNodeRole == SnakesProto.NodeRole.MASTER || snapshot == null) {
+                return;
+            }
+            pendingSteers.add(new long[] {msgSeq, direction.ordinal(), System.currentTimeMillis()});
+            publishSnapshot(snapshot.getState());
+        });
+    }
+
+    // Поток игры: мастер применил все наши повороты до msg_seq включительно
+    public void acknowledgeSteers(long msgSeq) {
+        // без подтверждения дольше node_timeout_ms поворот считаем потерянным вместе с мастером
+        long expired = System.currentTimeMillis() - nodeTimeout;
+        pendingSteers.removeIf(steer -> steer[0] <= msgSeq || steer[2] < expired);
+    }
+
+    private void predictMySnake(Field cells) {
+        Snake mine = snakeMap.get(myId);
+        if (mine == null || myNodeRole == SnakesProto.NodeRole.MASTER) {
+            pendingSteers.clear();
+            return;
+        }
+        Snake predicted = new Snake(mine);
+        long[] latest = pendingSteers.get(pendingSteers.size() - 1);
+        // мастер хранит для игрока только последний поворот, так что и здесь важен только он
+        predicted.trySetDirection(SnakesProto.Direction.values()[(int) latest[1]]);
+        predicted.predictMove();
+
+        forEachCell(mine, (x, y) -> {
+            CellType type = cells.get(x, y);
+            if (type == CellType.MY_HEAD || type == CellType.MY_BODY) {
+                cells.set(x, y, CellType.EMPTY);
+            }
+        });
+        forEachCell(predicted, (x, y) -> cells.set(x, y, CellType.MY_BODY));
+        cells.set(predicted.getKeyPoints().get(0)[0], predicted.getKeyPoints().get(0)[1], CellType.MY_HEAD);
+    }
+
+    // Все клетки змеи от головы к хвосту
+    private void forEachCell(Snake snake, CellVisitor visitor) {
+        List<int[]> points = snake.getKeyPoints();
+        int curX = points.get(0)[0];
+        int curY = points.get(0)[1];
+        visitor.visit(curX, curY);
+        for (int i = 1; i < points.size(); ++i) {
+            int dx = Integer.signum(points.get(i)[0]);
+            int dy = Integer.signum(points.get(i)[1]);
+            int length = Math.abs(points.get(i)[0]) + Math.abs(points.get(i)[1]);
+            for (int j = 0; j < length; ++j) {
+                curX = Math.floorMod(curX + dx, fieldWidth);
+                curY = Math.floorMod(curY + dy, fieldHeight);
+                visitor.visit(curX, curY);
+            }
+        }
+    }
+
+    // null, пока не было ни одного хода или состояния
+    public GameSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public SnakesProto.GamePlayers getGamePlayers() {
         SnakesProto.GamePlayers.Builder gamePlayersBuilder = SnakesProto.GamePlayers.newBuilder();
         for (Player player : gamePlayers.values()) {
@@ -401,6 +648,7 @@ public final class GameModel {
                                  String ip, int port, SnakesProto.NodeRole nodeRole) {
         Player player = new Player(name, id, ip, port, nodeRole, 0);
         gamePlayers.put(id, player);
+        watchPlayer(id);
         snakeMap.put(id, snake);
         addSnakeBodyToField(snake);
         addSnakeHeadToField(snake);
@@ -419,31 +667,29 @@ public final class GameModel {
     }
 
     public void addNewSteerMsg(int id, SnakesProto.GameMessage.SteerMsg msg) {
-        steerMsgQueue.add(new AbstractMap.SimpleEntry<>(id, msg));
+        steerSlots.offerLatest(id, msg.getDirection());
     }
 
-    public UnicastSender getUnicastSender() {
-        return unicastSender;
+    // false - поворот устарел, у игрока уже есть более новый
+    public boolean addNewSteerMsg(int id, long msgSeq, SnakesProto.GameMessage.SteerMsg msg) {
+        return steerSlots.offer(id, msgSeq, msg.getDirection());
     }
 
-    public int getLastMsgSeq() {
-        return lastMsgSeq;
+    public UnicastSender getUnicastSender() {
+        return unicastSender;
     }
 
-    public void iterateLastMsqSeq() {
-        lastMsgSeq++;
+    // msg_seq берут потоки игры, отправки и интерфейса
+    public long nextMsgSeq() {
+        return lastMsgSeq.getAndIncrement();
     }
 
     public DatagramSocket getUnicastSocket() {
         return unicastSocket;
     }
 
-    public Queue<Map.Entry<Integer, SnakesProto.GameMessage.SteerMsg>> getSteerMsgQueue() {
-        return steerMsgQueue;
-    }
-
-    public void clearSteerMsgQueue() {
-        steerMsgQueue.clear();
+    public SteerSlots getSteerSlots() {
+        return steerSlots;
     }
 
     public Snake getSnakeById (int id) {
@@ -463,6 +709,18 @@ public final class GameModel {
         this.gameView = gameView;
     }
 
+    public TickListener getTickListener() {
+        return tickListener;
+    }
+
+    public void setTickListener(TickListener tickListener) {
+        this.tickListener = tickListener;
+    }
+
+    public GameRecorder getRecorder() {
+        return recorder;
+    }
+
     public int getStateOrder() {
         return stateOrder;
     }
@@ -487,10 +745,6 @@ public final class GameModel {
         return gamePlayers;
     }
 
-    public Map<Integer, Long> getLastSteerMsg() {
-        return lastSteerMsg;
-    }
-
     public void setMasterInetAddress(InetAddress masterInetAddress) {
         this.masterInetAddress = masterInetAddress;
     }
@@ -504,14 +758,18 @@ public final class GameModel {
         if (gamePlayers.containsKey(myId)) {
             gamePlayers.get(myId).setNodeRole(myNodeRole);
         }
-        if (myNodeRole == SnakesProto.NodeRole.MASTER) {
-            try {
+        try {
+            if (myNodeRole == SnakesProto.NodeRole.MASTER) {
+                // последнее принятое состояние уже разослано прежним мастером, продолжаем со следующего номера
+                iterateStateOrder();
+                // свой поток чисел, а не повтор выпавшего прежнему мастеру с начала игры
+                random = new SplittableRandom(ProtocolExtensions.getGameSeed(gameConfig) ^ stateOrder);
                 initMaster();
                 notifyAllAboutNewMaster();
             }
-            catch (IOException ex) {
-                ex.printStackTrace();
-            }
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
         }
         System.out.println("My role : " + myNodeRole);
     }
@@ -532,8 +790,7 @@ public final class GameModel {
             msg.setSenderRole(SnakesProto.NodeRole.MASTER);
             msg.setReceiverRole(SnakesProto.NodeRole.DEPUTY);
             builder.setRoleChange(msg);
-            builder.setMsgSeq(lastMsgSeq);
-            iterateLastMsqSeq();
+            builder.setMsgSeq(nextMsgSeq());
             unicastSender.sendMessage(builder.build(), address, port);
         }
         else {
@@ -553,8 +810,7 @@ public final class GameModel {
                 msg.setSenderRole(SnakesProto.NodeRole.MASTER);
                 msg.setReceiverRole(SnakesProto.NodeRole.DEPUTY);
                 builder.setRoleChange(msg);
-                builder.setMsgSeq(lastMsgSeq);
-                iterateLastMsqSeq();
+                builder.setMsgSeq(nextMsgSeq());
                 try {
                     deputyInetAddress = InetAddress.getByName(player.getIpAddress());
                     deputyPort = player.getPort();
@@ -573,8 +829,114 @@ public final class GameModel {
         if (state.getStateOrder() <= stateOrder) {
             return;
         }
+        applyState(state);
+        awaitingResync = false;
+        pendingFrames.headMap(stateOrder, true).clear();
+        if (!verifyFieldHash(state)) {
+            requestResync();
+            return;
+        }
+        applyPendingFrames();
+    }
+
+    // Поток игры: кадр lockstep от мастера, ходы применяются строго по порядку номеров
+    public void onLockstepFrame(LockstepFrame frame) {
+        if (awaitingResync || frame.getTick() <= stateOrder || myNodeRole == SnakesProto.NodeRole.MASTER) {
+            return;
+        }
+        pendingFrames.put(frame.getTick(), frame);
+        applyPendingFrames();
+        if (pendingFrames.size() > Constants.LOCKSTEP_MAX_PENDING) {
+            // пропущенный кадр так и не дошёл, дальше считать не от чего
+            requestResync();
+        }
+    }
+
+    private void applyPendingFrames() {
+        LockstepFrame frame;
+        while (!awaitingResync && (frame = pendingFrames.remove(stateOrder + 1)) != null) {
+            applyLockstepFrame(frame);
+        }
+    }
+
+    private void applyLockstepFrame(LockstepFrame frame) {
+        for (int i = 0; i < frame.getSteerCount(); ++i) {
+            Snake snake = snakeMap.get(frame.getSteerPlayerId(i));
+            SnakesProto.Direction direction = SnakesProto.Direction.forNumber(frame.getSteerDirection(i));
+            if (snake != null && direction != null) {
+                snake.trySetDirection(direction);
+            }
+        }
+        simulateTick(frame.getFood());
+        stateOrder = frame.getTick();
+        lastStateTime = System.currentTimeMillis();
+        if (frame.hasChecksum() && frame.getChecksum() != lockstepChecksum()) {
+            lockstepDesyncs.incrementAndGet();
+            System.out.println("Расхождение с мастером на ходе " + frame.getTick());
+            requestResync();
+            return;
+        }
+        publishSnapshot(buildGameState(stateOrder));
+    }
+
+    // Поток игры: дальше считать ходы не от чего, ждём полное состояние от мастера
+    public void requestResync() {
+        awaitingResync = true;
+        pendingFrames.clear();
+        if (unicastSender == null || masterInetAddress == null) {
+            return;
+        }
+        SnakesProto.GameMessage.Builder builder = ProtocolExtensions.resyncRequest(stateOrder);
+        builder.setMsgSeq(nextMsgSeq());
+        unicastSender.sendMessage(builder.build(), masterInetAddress, masterPort);
+    }
+
+    // Сумма всего, что меняет ход: змеи и их точки, еда по порядку, очки; одинакова у мастера и узлов в lockstep
+    long lockstepChecksum() {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (Snake snake : snakeMap.values()) {
+            hash = mix(hash, snake.getId());
+            hash = mix(hash, snake.getState().getNumber());
+            hash = mix(hash, snake.getDirection().getNumber());
+            for (int[] point : snake.getKeyPoints()) {
+                hash = mix(hash, ((long) point[0] << 32) ^ (point[1] & 0xFFFFFFFFL));
+            }
+        }
+        for (int[] f : food) {
+            hash = mix(hash, ((long) f[0] << 32) ^ (f[1] & 0xFFFFFFFFL));
+        }
+        for (Snake snake : snakeMap.values()) {
+            Player player = gamePlayers.get(snake.getId());
+            if (player != null) {
+                hash = mix(hash, player.getScore());
+            }
+        }
+        return mix(hash, field.getHash());
+    }
+
+    private static long mix(long hash, long value) {
+        long z = hash ^ (value + 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long getLockstepDesyncs() {
+        return lockstepDesyncs.get();
+    }
+
+    public void requestFullState(int playerId) {
+        fullStateRequests.add(playerId);
+    }
 
+    // true - узел просил полное состояние, просьба снимается
+    boolean takeFullStateRequest(int playerId) {
+        return fullStateRequests.remove(playerId);
+    }
+
+    public void applyState(SnakesProto.GameState state) {
         stateOrder = state.getStateOrder();
+        lastStateTime = System.currentTimeMillis();
 
         snakeMap.clear();
         for (SnakesProto.GameState.Snake snake : state.getSnakesList()) {
@@ -591,15 +953,16 @@ public final class GameModel {
         hasDeputy = false;
         for (SnakesProto.GamePlayer player : state.getPlayers().getPlayersList()) {
             Player toPut = new Player(player);
-            if (player.getIpAddress().isBlank()) {
+            if (player.getIpAddress().isBlank() && masterInetAddress != null) {
                 toPut.setIpAddress(masterInetAddress.getHostName());
                 toPut.setPort(masterPort);
             }
             gamePlayers.put(player.getId(), toPut);
+            watchPlayer(player.getId());
             if (player.getRole() != SnakesProto.NodeRole.VIEWER) {
                 activePlayers++;
             }
-            if (player.getRole() == SnakesProto.NodeRole.DEPUTY) {
+            if (player.getRole() == SnakesProto.NodeRole.DEPUTY && unicastSocket != null) {
                 try {
                     hasDeputy = true;
                     deputyInetAddress = InetAddress.getByName(player.getIpAddress());
@@ -613,12 +976,27 @@ public final class GameModel {
         }
 
         fillCells();
+        publishSnapshot(state);
+    }
 
-        if (gameView != null) {
-            Platform.runLater(() -> {
-                gameView.drawField();
-                gameView.updatePlayers();
-            });
+    // Поле, восстановленное из состояния, сверяется с хешем мастера; состояние без хеша или урезанное - не с чем
+    public boolean verifyFieldHash(SnakesProto.GameState state) {
+        Long expected = ProtocolExtensions.getFieldHash(state);
+        if (expected == null || ProtocolExtensions.isAreaFiltered(state) || expected == field.getHash()) {
+            return true;
+        }
+        fieldHashMismatches.incrementAndGet();
+        System.out.println("Поле не совпало с мастером на ходе " + state.getStateOrder());
+        return false;
+    }
+
+    public long getFieldHashMismatches() {
+        return fieldHashMismatches.get();
+    }
+
+    private void watchPlayer(int id) {
+        if (unicastReceiver != null) {
+            unicastReceiver.getLivenessTracker().watch(id);
         }
     }
 
@@ -652,11 +1030,10 @@ public final class GameModel {
         List<int[]> points = snake.getKeyPoints();
         int curX = points.get(0)[0];
         int curY = points.get(0)[1];
-        Random random = new Random();
         for (int i = 1; i < points.size(); ++i) {
             if (points.get(i)[0] > 0) {
                 for (int j = 1; j <= points.get(i)[0]; ++j) {
-                    if (random.nextFloat() < deadFoodProb) {
+                    if (random.nextDouble() < deadFoodProb) {
                         food.add(new int[] {Math.floorMod(curX + j, fieldWidth), Math.floorMod(curY, fieldHeight)});
                     }
                 }
@@ -664,7 +1041,7 @@ public final class GameModel {
             }
             if (points.get(i)[0] < 0) {
                 for (int j = -1; j >= points.get(i)[0]; --j) {
-                    if (random.nextFloat() < deadFoodProb) {
+                    if (random.nextDouble() < deadFoodProb) {
                         food.add(new int[] {Math.floorMod(curX + j, fieldWidth), Math.floorMod(curY, fieldHeight)});
                     }
                 }
@@ -672,7 +1049,7 @@ public final class GameModel {
             }
             if (points.get(i)[1] > 0) {
                 for (int j = 1; j <= points.get(i)[1]; ++j) {
-                    if (random.nextFloat() < deadFoodProb) {
+                    if (random.nextDouble() < deadFoodProb) {
                         food.add(new int[] {Math.floorMod(curX, fieldWidth), Math.floorMod(curY + j, fieldHeight)});
                     }
                 }
@@ -680,7 +1057,7 @@ public final class GameModel {
             }
             if (points.get(i)[1] < 0) {
                 for (int j = -1; j >= points.get(i)[1]; --j) {
-                    if (random.nextFloat() < deadFoodProb) {
+                    if (random.nextDouble() < deadFoodProb) {
                         food.add(new int[] {Math.floorMod(curX, fieldWidth), Math.floorMod(curY + j, fieldHeight)});
                     }
                 }
@@ -697,8 +1074,7 @@ public final class GameModel {
 
         if (snake.getId() == myId) {
             myNodeRole = SnakesProto.NodeRole.VIEWER;
-            announcementPinger.cancel();
-            gameStateUpdater.cancel();
+            cancelMasterTasks();
             unicastSender.clearMessageQueue();
             notifyDeputyAboutMyDeath();
             return;
@@ -709,8 +1085,7 @@ public final class GameModel {
         msg.setSenderRole(SnakesProto.NodeRole.MASTER);
         msg.setReceiverRole(SnakesProto.NodeRole.VIEWER);
         builder.setRoleChange(msg);
-        builder.setMsgSeq(lastMsgSeq);
-        iterateLastMsqSeq();
+        builder.setMsgSeq(nextMsgSeq());
         try {
             unicastSender.sendMessage(builder.build(),
                     InetAddress.getByName(gamePlayers.get(snake.getId()).getIpAddress()),
@@ -736,8 +1111,7 @@ public final class GameModel {
         msg.setSenderRole(SnakesProto.NodeRole.VIEWER);
         msg.setReceiverRole(SnakesProto.NodeRole.MASTER);
         builder.setRoleChange(msg);
-        builder.setMsgSeq(lastMsgSeq);
-        iterateLastMsqSeq();
+        builder.setMsgSeq(nextMsgSeq());
         unicastSender.sendMessage(builder.build(), deputyInetAddress, deputyPort);
 
         masterInetAddress = deputyInetAddress;
@@ -755,8 +1129,7 @@ public final class GameModel {
             msg.setSenderRole(SnakesProto.NodeRole.MASTER);
             msg.setReceiverRole(player.getNodeRole());
             builder.setRoleChange(msg);
-            builder.setMsgSeq(lastMsgSeq);
-            iterateLastMsqSeq();
+            builder.setMsgSeq(nextMsgSeq());
             try {
                 unicastSender.sendMessage(builder.build(), InetAddress.getByName(player.getIpAddress()),
                         player.getPort());
@@ -794,12 +1167,43 @@ public final class GameModel {
         }
     }
 
+    private void cancelMasterTasks() {
+        if (announcementFuture != null) {
+            announcementFuture.cancel(false);
+        }
+        if (gameStateUpdaterFuture != null) {
+            gameStateUpdaterFuture.cancel(false);
+        }
+    }
+
+    // Команда потоку игры; команды выполняются по одной в порядке поступления вперемешку с ходами
+    public void execute(Runnable command) {
+        try {
+            gameExecutor.execute(guarded(command));
+        }
+        catch (RejectedExecutionException ignored) {}
+    }
+
+    // Исключение в периодической задаче иначе молча отменило бы все следующие ходы
+    private static Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            }
+            catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        };
+    }
+
     public void destroy() {
-        if (announcementPinger != null) {
-            announcementPinger.cancel();
+        cancelMasterTasks();
+        gameExecutor.shutdownNow();
+        if (recorder != null) {
+            recorder.close();
         }
-        if (gameStateUpdaterTimer != null) {
-            gameStateUpdaterTimer.cancel();
+        if (unicastSocket == null) {
+            return;
         }
         unicastSenderThread.interrupt();
         unicastReceiverThread.interrupt();
@@ -0,0 +1,56 @@
+package mvc.model;
+
+import main.java.net.protocol.SnakesProto;
+
+/*
+ * Неизменяемый снимок игры на конец хода (или после применения присланного состояния).
+ * Поток игры публикует его через volatile-ссылку GameModel, читатели - отрисовка, рассылка состояния,
+ * объявления и запись - берут ссылку один раз и видят целостную картину без блокировок.
+ * Клетки - копия поля на момент публикации (порядковые номера GameModel.CellType).
+ */
+public final class GameSnapshot {
+    private final Field cells;
+    private final SnakesProto.GamePlayers players;
+    private final SnakesProto.GameState state;
+    private final long sequence;
+
+    GameSnapshot(Field cells, SnakesProto.GamePlayers players, SnakesProto.GameState state, long sequence) {
+        this.cells = cells;
+        this.players = players;
+        this.state = state;
+        this.sequence = sequence;
+    }
+
+    public int getWidth() {
+        return cells.getWidth();
+    }
+
+    public int getHeight() {
+        return cells.getHeight();
+    }
+
+    public int getCellOrdinal(int x, int y) {
+        return cells.getOrdinal(x, y);
+    }
+
+    public GameModel.CellType getCell(int x, int y) {
+        return cells.get(x, y);
+    }
+
+    public SnakesProto.GamePlayers getPlayers() {
+        return players;
+    }
+
+    public SnakesProto.GameState getState() {
+        return state;
+    }
+
+    public int getStateOrder() {
+        return state.getStateOrder();
+    }
+
+    // Номер публикации, растёт с каждым снимком этой модели
+    public long getSequence() {
+        return sequence;
+    }
+}
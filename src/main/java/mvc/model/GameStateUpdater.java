@@ -1,104 +1,178 @@
 package mvc.model;
 
-import javafx.application.Platform;
 import main.java.net.protocol.SnakesProto;
+import net.protocol.Constants;
+import net.protocol.LockstepFrame;
+import net.protocol.ProtocolExtensions;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Collectors;
 
-public class GameStateUpdater extends TimerTask {
+public class GameStateUpdater implements Runnable {
     private final GameModel model;
+    private final SteerSlots.Consumer steerConsumer;
+    // последний центр окрестности каждого игрока, чтобы погибший продолжал видеть то же место
+    private final Map<Integer, int[]> areaCenters = new HashMap<>();
+    // lockstep: повороты этого хода парами (id, направление) и состав игроков без очков на прошлом ходе
+    private final List<Integer> tickSteers = new ArrayList<>();
+    private List<SnakesProto.GamePlayer> lastRoster;
+    // msg_seq последнего применённого поворота каждого игрока, узлы по нему сверяют предсказание
+    private final Map<Integer, Long> appliedSteers = new HashMap<>();
 
     public GameStateUpdater(GameModel model) {
         this.model = model;
+        steerConsumer = this::applySteer;
     }
 
-    @Override
-    public void run() {
-        Queue<Map.Entry<Integer, SnakesProto.GameMessage.SteerMsg>> currentQueue =
-                new ConcurrentLinkedDeque<>(model.getSteerMsgQueue());
-        model.clearSteerMsgQueue();
-        for (Map.Entry<Integer, SnakesProto.GameMessage.SteerMsg> msg : currentQueue) {
-            Snake snake = model.getSnakeById(msg.getKey());
-            if (snake != null) {
-                snake.trySetDirection(msg.getValue().getDirection());
+    private void applySteer(int playerId, long seq, SnakesProto.Direction direction) {
+        Snake snake = model.getSnakeById(playerId);
+        if (snake != null) {
+            appliedSteers.put(playerId, seq);
+            snake.trySetDirection(direction);
+            if (Constants.LOCKSTEP) {
+                tickSteers.add(playerId);
+                tickSteers.add(direction.getNumber());
+            }
+            if (model.getRecorder() != null) {
+                model.getRecorder().recordSteer(model.getStateOrder(), playerId, direction);
             }
         }
-        for (Snake snake : model.getSnakeMap().values()) {
-            snake.makeMove();
+    }
+
+    @Override
+    public void run() {
+        long tickStart = System.nanoTime();
+        tickSteers.clear();
+        model.getSteerSlots().drain(steerConsumer);
+        int foodMark = model.simulateTick(null);
+
+        int stateOrder = model.getStateOrder();
+        SnakesProto.GameState state = model.buildGameState(stateOrder);
+        model.iterateStateOrder();
+        model.publishSnapshot(state);
+        GameSnapshot snapshot = model.getSnapshot();
+        if (model.getRecorder() != null) {
+            model.getRecorder().recordState(snapshot.getState());
         }
-        model.clearField();
-        for (Snake snake : model.getSnakeMap().values()) {
-            model.addSnakeBodyToField(snake);
+        sendGameStateMsg(snapshot, foodMark);
+
+        if (model.getTickListener() != null) {
+            model.getTickListener().onTick(stateOrder, tickStart, System.nanoTime() - tickStart);
         }
-        for (Snake snake : model.getSnakeMap().values()) {
-            int ret = model.addSnakeHeadToField(snake);
-            if (ret == 0) {
+    }
+
+    private void sendGameStateMsg(GameSnapshot snapshot, int foodMark) {
+        SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+        AreaOfInterest area = null;
+        SnakesProto.GameMessage.Builder frame = null;
+        // новые и ушедшие игроки и смена ролей в кадр не попадают, при них все получают полное состояние
+        boolean rosterChanged = Constants.LOCKSTEP && updateRoster(snapshot.getPlayers());
+
+        for (SnakesProto.GamePlayer player : snapshot.getPlayers().getPlayersList()) {
+            if (player.getId() == model.getMyId()) {
                 continue;
             }
-            if (ret == 2) {
-                model.removeSnake(snake);
-            }
-            for (Snake snake1 : model.getSnakeMap().values()) {
-                if (snake.equals(snake1)) {
+            try {
+                InetAddress address = InetAddress.getByName(player.getIpAddress());
+                if (isLockstepPeer(player, address)) {
+                    if (!model.takeFullStateRequest(player.getId()) && !rosterChanged) {
+                        if (frame == null) {
+                            frame = ProtocolExtensions.lockstepFrame(buildFrame(snapshot, foodMark));
+                        }
+                        frame.setMsgSeq(model.nextMsgSeq());
+                        setSteerAck(frame, player, address);
+                        model.getUnicastSender().sendMessage(frame.build(), address, player.getPort());
+                        continue;
+                    }
+                    // полное состояние для lockstep всегда целиком, без урезания окрестностью
+                    builder.setState(SnakesProto.GameMessage.StateMsg.newBuilder().setState(snapshot.getState()));
+                    builder.setMsgSeq(model.nextMsgSeq());
+                    setSteerAck(builder, player, address);
+                    model.getUnicastSender().sendMessage(builder.build(), address, player.getPort());
                     continue;
                 }
-                if (Arrays.equals(snake.getKeyPoints().get(0), snake1.getKeyPoints().get(0))) {
-                    model.removeSnake(snake1);
+                SnakesProto.GameState state = snapshot.getState();
+                // узел, у которого не сошёлся хеш поля, получает один раз всё поле, а не окрестность
+                boolean resync = model.takeFullStateRequest(player.getId());
+                if (Constants.AOI_RADIUS > 0 && !resync && !wantsFullState(player, address)) {
+                    if (area == null) {
+                        area = new AreaOfInterest(state, snapshot.getWidth(), snapshot.getHeight(),
+                                Constants.AOI_BUCKET_SIZE);
+                    }
+                    state = stateAround(area, player.getId(), snapshot);
                 }
+                builder.setState(SnakesProto.GameMessage.StateMsg.newBuilder().setState(state));
+                // очередь отправки хранит сообщения по msg_seq, поэтому каждому получателю свой номер
+                builder.setMsgSeq(model.nextMsgSeq());
+                setSteerAck(builder, player, address);
+                model.getUnicastSender().sendMessage(builder.build(), address, player.getPort());
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
             }
-            model.removeSnake(snake);
         }
+        Set<Integer> playerIds = snapshot.getPlayers().getPlayersList().stream()
+                .map(SnakesProto.GamePlayer::getId).collect(Collectors.toSet());
+        areaCenters.keySet().retainAll(playerIds);
+        appliedSteers.keySet().retainAll(playerIds);
+    }
 
-        model.addNecessaryFood();
-        model.fillCells();
+    private void setSteerAck(SnakesProto.GameMessage.Builder message, SnakesProto.GamePlayer player,
+                             InetAddress address) {
+        boolean supported = model.getUnicastSender().getPeerFeatures()
+                .supports(address, player.getPort(), ProtocolExtensions.FEATURE_STEER_ACK);
+        ProtocolExtensions.setSteerAck(message, supported ? appliedSteers.getOrDefault(player.getId(), -1L) : -1L);
+    }
 
-        sendGameStateMsg();
+    // Заместитель принимает полные состояния, чтобы без задержки стать мастером
+    private boolean isLockstepPeer(SnakesProto.GamePlayer player, InetAddress address) {
+        return Constants.LOCKSTEP && player.getRole() != SnakesProto.NodeRole.DEPUTY
+                && model.getUnicastSender().getPeerFeatures()
+                        .supports(address, player.getPort(), ProtocolExtensions.FEATURE_LOCKSTEP);
+    }
 
-        if (model.getGameView() != null) {
-            Platform.runLater(() -> {
-                model.getGameView().drawField();
-                model.getGameView().updatePlayers();
-            });
+    private LockstepFrame buildFrame(GameSnapshot snapshot, int foodMark) {
+        int[] steers = new int[tickSteers.size()];
+        for (int i = 0; i < steers.length; ++i) {
+            steers[i] = tickSteers.get(i);
         }
+        List<int[]> food = model.getFood();
+        int tick = snapshot.getState().getStateOrder();
+        boolean withChecksum = Constants.LOCKSTEP_CHECKSUM_INTERVAL > 0 && tick % Constants.LOCKSTEP_CHECKSUM_INTERVAL == 0;
+        return new LockstepFrame(tick, steers, new ArrayList<>(food.subList(foodMark, food.size())),
+                withChecksum, withChecksum ? model.lockstepChecksum() : 0L);
     }
 
-    private void sendGameStateMsg() {
-        SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
-        SnakesProto.GameMessage.StateMsg.Builder stateMsg = SnakesProto.GameMessage.StateMsg.newBuilder();
-        SnakesProto.GameState.Builder gameState = SnakesProto.GameState.newBuilder();
-        gameState.setStateOrder(model.getStateOrder());
-        model.iterateStateOrder();
-        for (Snake snake : model.getSnakeMap().values()) {
-            gameState.addSnakes(snake.convertSnakeForMsg());
+    // true - состав игроков или их роли изменились с прошлого хода
+    private boolean updateRoster(SnakesProto.GamePlayers players) {
+        List<SnakesProto.GamePlayer> roster = new ArrayList<>(players.getPlayersCount());
+        for (SnakesProto.GamePlayer player : players.getPlayersList()) {
+            roster.add(player.toBuilder().setScore(0).build());
         }
-        for (int[] food : model.getFood()) {
-            SnakesProto.GameState.Coord.Builder coordsBuilder = SnakesProto.GameState.Coord.newBuilder();
-            coordsBuilder.setX(food[0]);
-            coordsBuilder.setY(food[1]);
-            gameState.addFoods(coordsBuilder);
+        boolean changed = !roster.equals(lastRoster);
+        lastRoster = roster;
+        return changed;
+    }
+
+    // Заместитель должен быть готов стать мастером, поэтому получает всё; зритель - если попросил
+    private boolean wantsFullState(SnakesProto.GamePlayer player, InetAddress address) {
+        return player.getRole() == SnakesProto.NodeRole.DEPUTY
+                || (player.getRole() == SnakesProto.NodeRole.VIEWER && model.getUnicastSender().getPeerFeatures()
+                        .supports(address, player.getPort(), ProtocolExtensions.FEATURE_FULL_STATE));
+    }
+
+    // Окрестность головы игрока; без змеи - там, где она была последний раз, иначе центр поля
+    private SnakesProto.GameState stateAround(AreaOfInterest area, int playerId, GameSnapshot snapshot) {
+        int[] center = area.getHead(playerId);
+        if (center != null) {
+            areaCenters.put(playerId, center);
         }
-        gameState.setPlayers(model.getGamePlayers());
-        gameState.setConfig(model.getGameConfig());
-        stateMsg.setState(gameState);
-        builder.setState(stateMsg);
-        builder.setMsgSeq(model.getLastMsgSeq());
-        model.iterateLastMsqSeq();
-        SnakesProto.GameMessage message = builder.build();
-
-        for (SnakesProto.GamePlayer player : model.getGamePlayers().getPlayersList()) {
-            if (player.getId() == model.getMyId()) {
-                continue;
-            }
-            try {
-                model.getUnicastSender().sendMessage(message, InetAddress.getByName(player.getIpAddress()),
-                        player.getPort());
-            }
-            catch (IOException ex) {
-                ex.printStackTrace();
-            }
+        else {
+            center = areaCenters.getOrDefault(playerId,
+                    new int[] {snapshot.getWidth() / 2, snapshot.getHeight() / 2});
         }
+        return area.forCenter(center[0], center[1], Constants.AOI_RADIUS);
     }
 }
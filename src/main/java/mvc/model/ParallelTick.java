@@ -0,0 +1,148 @@
+package mvc.model;
+
+import net.protocol.Constants;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/*
+ * Параллельные части хода на ForkJoinPool, разрешение столкновений остаётся последовательным.
+ *
+ * Сдвиг: обычный параллельный проход по змеям кусками. Сдвиг меняет только саму змею и читает поле
+ * прошлого хода, а еду убирает и очки начисляет последовательно после всех задач - в порядке обхода змей,
+ * как при обычном ходе, поэтому список еды выходит тем же.
+ * Тела: поле делится на горизонтальные полосы (Field.getBandHeight()), каждая полоса перебирает
+ * задевающие её змеи в общем порядке и пишет только свои строки, так что при наложении тел
+ * в клетке остаётся та же змея, что и при последовательной отрисовке.
+ * Головы и столкновения - последовательно в GameModel.simulateTick: от их порядка зависит,
+ * какая змея погибнет и какая еда выпадет, а по объёму работы они на порядок меньше отрисовки тел.
+ */
+final class ParallelTick {
+    private final static ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Constants.TICK_THREADS));
+
+    private ParallelTick() {}
+
+    static boolean isEnabled(boolean requested, int snakeCount) {
+        return requested && snakeCount >= Constants.PARALLEL_TICK_MIN_SNAKES;
+    }
+
+    static void moveSnakes(List<Snake> snakes) {
+        boolean[] ate = new boolean[snakes.size()];
+        // несколько кусков на поток, чтобы длинные змеи не оставляли потоки без работы
+        int grain = Math.max(1, snakes.size() / (4 * POOL.getParallelism()));
+        POOL.invoke(new RangeTask(0, snakes.size(), grain, index -> ate[index] = snakes.get(index).advance()));
+        for (int i = 0; i < snakes.size(); ++i) {
+            if (ate[i]) {
+                snakes.get(i).eatFood();
+            }
+        }
+    }
+
+    static void paintBodies(GameModel model, Field field, List<Snake> snakes) {
+        int height = field.getHeight();
+        int bandHeight = field.getBandHeight();
+        int bands = (height + bandHeight - 1) / bandHeight;
+        BandLists lists = new BandLists(bands);
+        for (int i = 0; i < snakes.size(); ++i) {
+            markBands(snakes.get(i).getKeyPoints(), height, bandHeight, lists, i);
+        }
+
+        runBands(bands, band -> {
+            int fromY = band * bandHeight;
+            int toY = Math.min(height, fromY + bandHeight);
+            for (int k = 0; k < lists.sizes[band]; ++k) {
+                model.addSnakeBodyToField(snakes.get(lists.items[band][k]), fromY, toY);
+            }
+        });
+    }
+
+    // Полосы, через которые проходит тело змеи, обход тот же, что в GameModel.addSnakeBodyToField
+    private static void markBands(List<int[]> points, int height, int bandHeight, BandLists lists, int snake) {
+        int curY = points.get(0)[1];
+        for (int i = 1; i < points.size(); ++i) {
+            if (points.get(i)[0] != 0) {
+                lists.addOnce(Math.floorMod(curY, height) / bandHeight, snake);
+            }
+            int dy = points.get(i)[1];
+            if (dy != 0) {
+                int step = dy > 0 ? 1 : -1;
+                int left = Math.min(Math.abs(dy), height);
+                int row = Math.floorMod(curY + step, height);
+                while (left > 0) {
+                    int band = row / bandHeight;
+                    lists.addOnce(band, snake);
+                    int inBand = step > 0
+                            ? Math.min(height, (band + 1) * bandHeight) - row
+                            : row - band * bandHeight + 1;
+                    inBand = Math.min(inBand, left);
+                    left -= inBand;
+                    row = Math.floorMod(row + step * inBand, height);
+                }
+                curY += dy;
+            }
+        }
+    }
+
+    private static void runBands(int bands, IntConsumer body) {
+        POOL.invoke(new RangeTask(0, bands, 1, body));
+    }
+
+    // body для каждого номера из [from, to), отрезки не длиннее grain выполняются одной задачей
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final IntConsumer body;
+
+        RangeTask(int from, int to, int grain, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; ++i) {
+                    body.accept(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, grain, body), new RangeTask(middle, to, grain, body));
+        }
+    }
+
+    // Номера змей по полосам, в порядке добавления
+    private static class BandLists {
+        private final int[][] items;
+        private final int[] sizes;
+
+        BandLists(int bands) {
+            items = new int[bands][];
+            sizes = new int[bands];
+        }
+
+        void add(int band, int value) {
+            if (items[band] == null) {
+                items[band] = new int[4];
+            }
+            else if (sizes[band] == items[band].length) {
+                items[band] = Arrays.copyOf(items[band], sizes[band] * 2);
+            }
+            items[band][sizes[band]++] = value;
+        }
+
+        void addOnce(int band, int value) {
+            if (sizes[band] == 0 || items[band][sizes[band] - 1] != value) {
+                add(band, value);
+            }
+        }
+    }
+}
@@ -2,12 +2,19 @@ package mvc.model;
 
 import main.java.net.protocol.SnakesProto;
 
+/*
+ * Меняет игрока только поток игры, а поток отправки (пинги) и поток приёма (поиск игрока по адресу)
+ * читают его без блокировки. Поля volatile, так что читатели видят последние значения.
+ * Пару адрес-порт можно прочитать посередине смены адреса: тогда один пинг уйдёт на старый адрес
+ * или одно сообщение не найдёт отправителя и будет обработано как от неизвестного узла, что протокол
+ * и так переживает повторами. Очки читает только поток игры, для остальных - копии в GameSnapshot.
+ */
 public class Player {
-    private String name;
-    private int id;
-    private String ipAddress;
-    private int port;
-    private SnakesProto.NodeRole nodeRole;
+    private volatile String name;
+    private volatile int id;
+    private volatile String ipAddress;
+    private volatile int port;
+    private volatile SnakesProto.NodeRole nodeRole;
     private int score;
 
     public Player(String name, int id, String ipAddress, int port, SnakesProto.NodeRole nodeRole, int score) {
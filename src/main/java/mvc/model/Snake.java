@@ -52,6 +52,19 @@ public class Snake {
         }
     }
 
+    // Копия для предсказания хода своей змеи, точки не разделяются с оригиналом
+    Snake(Snake other) {
+        this.model = other.model;
+        this.id = other.id;
+        this.direction = other.direction;
+        this.nextDirection = other.nextDirection;
+        this.state = other.state;
+        keyPoints = new ArrayList<>(other.keyPoints.size());
+        for (int[] point : other.keyPoints) {
+            keyPoints.add(point.clone());
+        }
+    }
+
     public List<int[]> getKeyPoints() {
         return keyPoints;
     }
@@ -72,6 +85,36 @@ public class Snake {
     }
 
     public void makeMove() {
+        if (advance()) {
+            eatFood();
+        }
+    }
+
+    // Еда в клетке головы: убрать её и засчитать очко, отделено от advance для параллельного хода
+    void eatFood() {
+        model.removeFood(keyPoints.get(0)[0], keyPoints.get(0)[1]);
+        if (model.getPlayerMap().containsKey(id)) {
+            model.getPlayerMap().get(id).iterateScore();
+        }
+    }
+
+    // Сдвиг змеи на клетку, меняет только её саму; true - голова попала на еду и змея выросла
+    boolean advance() {
+        moveHead();
+        if (model.getCellTypeByCoordinates(keyPoints.get(0)[0], keyPoints.get(0)[1]) == GameModel.CellType.FOOD) {
+            return true;
+        }
+        moveTail();
+        return false;
+    }
+
+    // Сдвиг без еды: что окажется под головой к следующему ходу мастера, узлу заранее не известно
+    void predictMove() {
+        moveHead();
+        moveTail();
+    }
+
+    private void moveHead() {
         if (direction != nextDirection) {
             direction = nextDirection;
             keyPoints.add(1, new int[] {0, 0});
@@ -98,15 +141,9 @@ public class Snake {
 
         keyPoints.get(0)[0] = Math.floorMod(keyPoints.get(0)[0], model.getFieldWidth());
         keyPoints.get(0)[1] = Math.floorMod(keyPoints.get(0)[1], model.getFieldHeight());
+    }
 
-        if (model.getCells()[keyPoints.get(0)[0]][keyPoints.get(0)[1]] == GameModel.CellType.FOOD) {
-            model.removeFood(keyPoints.get(0)[0], keyPoints.get(0)[1]);
-            if (model.getPlayerMap().containsKey(id)) {
-                model.getPlayerMap().get(id).iterateScore();
-            }
-            return;
-        }
-
+    private void moveTail() {
         if (keyPoints.get(keyPoints.size() - 1)[0] > 0) {
             keyPoints.get(keyPoints.size() - 1)[0]--;
         }
@@ -0,0 +1,107 @@
+package mvc.model;
+
+import main.java.net.protocol.SnakesProto;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Последний поворот каждого игрока до следующего хода: ячейка массива по id игрока,
+ * в ячейке (msg_seq << 8) | (направление + 1), младший байт 0 - поворота нет.
+ * Поток приёма пишет через CAS, оставляя поворот с наибольшим msg_seq,
+ * ход забирает повороты тоже через CAS, обнуляя только направление:
+ * номер остаётся в ячейке, и запоздавший повтор старого поворота будет отброшен.
+ * Массив растёт под блокировкой, старые ячейки на это время помечаются FROZEN.
+ */
+public class SteerSlots {
+    private final static long FROZEN = -1L;
+    private final static long DIRECTION_MASK = 0xFFL;
+    private final static SnakesProto.Direction[] DIRECTIONS = SnakesProto.Direction.values();
+
+    public interface Consumer {
+        void accept(int playerId, long seq, SnakesProto.Direction direction);
+    }
+
+    private volatile AtomicLongArray slots;
+
+    public SteerSlots() {
+        slots = new AtomicLongArray(16);
+    }
+
+    // false - уже есть поворот с большим или тем же номером
+    public boolean offer(int playerId, long seq, SnakesProto.Direction direction) {
+        if (playerId < 0) {
+            return false;
+        }
+        long value = (seq << 8) | (direction.ordinal() + 1);
+        while (true) {
+            AtomicLongArray current = slotsFor(playerId);
+            long old = current.get(playerId);
+            if (old == FROZEN) {
+                continue;
+            }
+            if ((old >>> 8) >= seq && old != 0L) {
+                return false;
+            }
+            if (current.compareAndSet(playerId, old, value)) {
+                return true;
+            }
+        }
+    }
+
+    // Поворот без номера (свой игрок на мастере или заместителе): считается новее всех прежних
+    public void offerLatest(int playerId, SnakesProto.Direction direction) {
+        if (playerId < 0) {
+            return;
+        }
+        while (true) {
+            AtomicLongArray current = slotsFor(playerId);
+            long old = current.get(playerId);
+            if (old == FROZEN) {
+                continue;
+            }
+            long value = (((old >>> 8) + 1) << 8) | (direction.ordinal() + 1);
+            if (current.compareAndSet(playerId, old, value)) {
+                return;
+            }
+        }
+    }
+
+    public void drain(Consumer consumer) {
+        AtomicLongArray current = slots;
+        for (int playerId = 0; playerId < current.length(); ++playerId) {
+            while (true) {
+                long old = current.get(playerId);
+                if (old == FROZEN) {
+                    current = slots;
+                    continue;
+                }
+                if ((old & DIRECTION_MASK) == 0L) {
+                    break;
+                }
+                if (current.compareAndSet(playerId, old, old & ~DIRECTION_MASK)) {
+                    consumer.accept(playerId, old >>> 8, DIRECTIONS[(int) (old & DIRECTION_MASK) - 1]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private AtomicLongArray slotsFor(int playerId) {
+        AtomicLongArray current = slots;
+        if (playerId < current.length()) {
+            return current;
+        }
+        synchronized (this) {
+            current = slots;
+            if (playerId < current.length()) {
+                return current;
+            }
+            AtomicLongArray grown = new AtomicLongArray(Math.max(playerId + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); ++i) {
+                grown.set(i, current.getAndSet(i, FROZEN));
+            }
+            slots = grown;
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package mvc.model;
+
+public interface TickListener {
+    // stateOrder - номер отправленного состояния, tickStart - System.nanoTime() начала хода
+    void onTick(int stateOrder, long tickStart, long tickDuration);
+}
@@ -0,0 +1,48 @@
+package mvc.view;
+
+import javafx.animation.AnimationTimer;
+import mvc.model.GameSnapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/*
+ * Передача снимков игры в поток интерфейса. Поток игры только кладёт последний снимок,
+ * а отрисовка происходит по импульсу AnimationTimer - не чаще одного раза за кадр.
+ * Если за кадр пришло несколько снимков, рисуется последний, остальные считаются пропущенными.
+ */
+public class FrameBridge extends AnimationTimer {
+    private final AtomicReference<GameSnapshot> latest = new AtomicReference<>();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final Consumer<GameSnapshot> renderer;
+    private long renderedFrames = 0;
+
+    public FrameBridge(Consumer<GameSnapshot> renderer) {
+        this.renderer = renderer;
+    }
+
+    // Вызывается из любого потока
+    public void publish(GameSnapshot snapshot) {
+        if (snapshot != null && latest.getAndSet(snapshot) != null) {
+            droppedFrames.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void handle(long now) {
+        GameSnapshot snapshot = latest.getAndSet(null);
+        if (snapshot != null) {
+            renderer.accept(snapshot);
+            renderedFrames++;
+        }
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getRenderedFrames() {
+        return renderedFrames;
+    }
+}
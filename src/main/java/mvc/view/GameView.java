@@ -4,8 +4,10 @@ import javafx.application.Platform;
 import javafx.beans.property.ListProperty;
 import javafx.beans.property.SimpleListProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
@@ -13,50 +15,93 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.ListView;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import mvc.controller.GameController;
+import main.java.net.protocol.SnakesProto;
 import mvc.model.GameModel;
-import mvc.model.Player;
+import mvc.model.GameSnapshot;
+import net.protocol.Constants;
+import replay.ReplayPlayer;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.List;
-import java.util.Map;
 
 public class GameView {
 
     private final GameModel model;
     private final GameController controller;
+    private ReplayPlayer replayPlayer;
 
     @FXML
     private Canvas cells;
     @FXML
+    private ImageView pixels;
+    @FXML
+    private ImageView minimap;
+    @FXML
     private ListView<Text> ratingList;
     @FXML
     private Button exitButton;
     private ListProperty<Text> ratingListProperty;
+    private final ObservableList<Text> ratingItems = FXCollections.observableArrayList();
+    private final Leaderboard leaderboard = new Leaderboard();
+    private SnakesProto.GamePlayers drawnPlayers;
     private GraphicsContext graphicsContext;
 
     private double fieldWidth;
     private double fieldHeight;
     private double cellSize;
+    // последний нарисованный снимок: перерисовываются только клетки, отличающиеся от него
+    private GameSnapshot drawnSnapshot;
+    private boolean fullRepaintRequired = true;
+    // для больших полей: клетка - один пиксель, масштабирует ImageView без сглаживания,
+    // а канва остаётся поверх только для рамки
+    private boolean pixelRendering;
+    private PixelBuffer<IntBuffer> pixelBuffer;
+    private volatile FrameBridge frameBridge;
+    // окно просмотра для больших полей: рисуются только viewColumns x viewRows клеток начиная с (cameraX, cameraY),
+    // поле замкнуто, поэтому координаты берутся по модулю; камера следует за своей головой, иначе двигается WASD
+    private boolean viewportMode;
+    private int viewColumns;
+    private int viewRows;
+    private int cameraX;
+    private int cameraY;
+    private int drawnCameraX = -1;
+    private int drawnCameraY = -1;
+    private Minimap minimapRenderer;
+
+    private final static int REPLAY_SEEK_STEP = 100;
+    private final static double MAX_FIELD_SIZE = 560.0;
+    private final static double MINIMAP_SIZE = 160.0;
 
-    private final static Map<GameModel.CellType, Color> cellColors;
+    // цвет по порядковому номеру GameModel.CellType
+    private final static Color[] cellColors = new Color[GameModel.CellType.values().length];
     static {
-        cellColors = new HashMap<>();
-        cellColors.put(GameModel.CellType.EMPTY, Color.WHITE);
-        cellColors.put(GameModel.CellType.MY_HEAD, Color.DARKGREEN);
-        cellColors.put(GameModel.CellType.MY_BODY, Color.GREEN);
-        cellColors.put(GameModel.CellType.ENEMY_HEAD, Color.DARKBLUE);
-        cellColors.put(GameModel.CellType.ENEMY_BODY, Color.MEDIUMBLUE);
-        cellColors.put(GameModel.CellType.ZOMBIE_HEAD, Color.GRAY);
-        cellColors.put(GameModel.CellType.ZOMBIE_BODY, Color.DARKGRAY);
-        cellColors.put(GameModel.CellType.FOOD, Color.RED);
+        cellColors[GameModel.CellType.EMPTY.ordinal()] = Color.WHITE;
+        cellColors[GameModel.CellType.MY_HEAD.ordinal()] = Color.DARKGREEN;
+        cellColors[GameModel.CellType.MY_BODY.ordinal()] = Color.GREEN;
+        cellColors[GameModel.CellType.ENEMY_HEAD.ordinal()] = Color.DARKBLUE;
+        cellColors[GameModel.CellType.ENEMY_BODY.ordinal()] = Color.MEDIUMBLUE;
+        cellColors[GameModel.CellType.ZOMBIE_HEAD.ordinal()] = Color.GRAY;
+        cellColors[GameModel.CellType.ZOMBIE_BODY.ordinal()] = Color.DARKGRAY;
+        cellColors[GameModel.CellType.FOOD.ordinal()] = Color.RED;
+    }
+    private final static int[] cellArgb = new int[cellColors.length];
+    static {
+        for (int i = 0; i < cellColors.length; ++i) {
+            cellArgb[i] = toArgbPre(cellColors[i]);
+        }
     }
 
     public GameView(GameModel model) {
@@ -64,53 +109,286 @@ public class GameView {
         controller = model.getController();
     }
 
+    public void setReplayPlayer(ReplayPlayer replayPlayer) {
+        this.replayPlayer = replayPlayer;
+    }
+
     public void initialize() {
         calculateSizes();
         graphicsContext = cells.getGraphicsContext2D();
-        ratingListProperty = new SimpleListProperty<>();
+        ratingListProperty = new SimpleListProperty<>(ratingItems);
         ratingList.itemsProperty().bind(ratingListProperty);
         ratingList.setMouseTransparent(true);
         ratingList.setFocusTraversable(false);
         exitButton.setFocusTraversable(false);
-        drawField();
-        updatePlayers();
+        frameBridge = new FrameBridge(this::render);
+        frameBridge.publish(model.getSnapshot());
+        frameBridge.start();
+    }
+
+    // Поток игры сообщает о новом снимке, рисуется он в ближайшем кадре
+    public void onSnapshotPublished(GameSnapshot snapshot) {
+        FrameBridge bridge = frameBridge;
+        if (bridge != null) {
+            bridge.publish(snapshot);
+        }
+    }
+
+    public long getDroppedFrames() {
+        return frameBridge == null ? 0 : frameBridge.getDroppedFrames();
+    }
+
+    private void render(GameSnapshot snapshot) {
+        drawField(snapshot);
+        updatePlayers(snapshot);
     }
 
     private void calculateSizes() {
         int cellsX = model.getFieldWidth();
         int cellsY = model.getFieldHeight();
-        double maxFieldSize = 560.0;
-        cellSize = (int) Math.min(maxFieldSize / cellsX, maxFieldSize / cellsY);
-        fieldWidth = cellSize * cellsX;
-        fieldHeight = cellSize * cellsY;
-        cells.setLayoutX(20 + (maxFieldSize - fieldWidth) / 2);
-        cells.setLayoutY(20 + (maxFieldSize - fieldHeight) / 2);
+        cellSize = (int) Math.min(MAX_FIELD_SIZE / cellsX, MAX_FIELD_SIZE / cellsY);
+        String viewport = Constants.VIEWPORT_MODE;
+        viewportMode = "on".equals(viewport)
+                || ("auto".equals(viewport) && cellSize < Constants.VIEWPORT_AUTO_CELL_SIZE);
+        if (viewportMode) {
+            cellSize = Constants.VIEWPORT_CELL_SIZE;
+            viewColumns = Math.min(cellsX, (int) (MAX_FIELD_SIZE / cellSize));
+            viewRows = Math.min(cellsY, (int) (MAX_FIELD_SIZE / cellSize));
+        }
+        else {
+            viewColumns = cellsX;
+            viewRows = cellsY;
+        }
+        fieldWidth = cellSize * viewColumns;
+        fieldHeight = cellSize * viewRows;
+        double layoutX = 20 + (MAX_FIELD_SIZE - fieldWidth) / 2;
+        double layoutY = 20 + (MAX_FIELD_SIZE - fieldHeight) / 2;
+        cells.setLayoutX(layoutX);
+        cells.setLayoutY(layoutY);
         cells.setWidth(fieldWidth);
         cells.setHeight(fieldHeight);
+
+        String mode = Constants.RENDER_MODE;
+        pixelRendering = !viewportMode && ("pixels".equals(mode)
+                || ("auto".equals(mode) && cellsX * cellsY >= Constants.PIXEL_RENDER_MIN_CELLS));
+        if (pixelRendering) {
+            IntBuffer buffer = ByteBuffer.allocateDirect(cellsX * cellsY * Integer.BYTES)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+            pixelBuffer = new PixelBuffer<>(cellsX, cellsY, buffer, PixelFormat.getIntArgbPreInstance());
+            pixels.setImage(new WritableImage(pixelBuffer));
+            pixels.setSmooth(false);
+            pixels.setFitWidth(fieldWidth);
+            pixels.setFitHeight(fieldHeight);
+            pixels.setLayoutX(layoutX);
+            pixels.setLayoutY(layoutY);
+            pixels.setVisible(true);
+        }
+        else {
+            pixelBuffer = null;
+            pixels.setImage(null);
+            pixels.setVisible(false);
+        }
+
+        if (viewportMode) {
+            // рейтинг укорачивается, под ним показывается карта всего поля
+            ratingList.setPrefHeight(240.0);
+            minimap.setFitWidth(MINIMAP_SIZE);
+            minimap.setFitHeight(MINIMAP_SIZE);
+            minimap.setPreserveRatio(true);
+            minimapRenderer = new Minimap(minimap, cellsX, cellsY, cellArgb);
+        }
+        fullRepaintRequired = true;
+    }
+
+    public void requestFullRepaint() {
+        fullRepaintRequired = true;
     }
 
-    public void updatePlayers() {
-        List<Text> rating = new ArrayList<>();
-        for (Player player : model.getPlayerMap().values()) {
-            Text text = new Text(
-                    player.getName() + " " + player.getScore()
-            );
-            rating.add(text);
+    // Узлы Text в списке переиспользуются, меняется только текст тех строк, что изменились
+    private void updatePlayers(GameSnapshot snapshot) {
+        if (snapshot.getPlayers() == drawnPlayers) {
+            return;
+        }
+        drawnPlayers = snapshot.getPlayers();
+        if (!leaderboard.update(drawnPlayers)) {
+            return;
+        }
+        List<Leaderboard.Entry> top = leaderboard.top(Constants.LEADERBOARD_SIZE);
+        if (ratingItems.size() > top.size()) {
+            ratingItems.subList(top.size(), ratingItems.size()).clear();
+        }
+        while (ratingItems.size() < top.size()) {
+            ratingItems.add(new Text());
+        }
+        for (int i = 0; i < top.size(); ++i) {
+            Leaderboard.Entry entry = top.get(i);
+            String line = (i + 1) + ". " + entry.getName() + " " + entry.getScore();
+            Text text = ratingItems.get(i);
+            if (!line.equals(text.getText())) {
+                text.setText(line);
+            }
         }
-        ratingListProperty.setValue(FXCollections.observableArrayList(rating));
     }
 
-    public void drawField() {
-        for (int i = 0; i < model.getFieldWidth(); ++i) {
-            for (int j = 0; j < model.getFieldHeight(); ++j) {
-                graphicsContext.setFill(cellColors.get(model.getCellTypeByCoordinates(i, j)));
+    private void drawField(GameSnapshot snapshot) {
+        if (viewportMode) {
+            drawViewport(snapshot);
+            return;
+        }
+        if (snapshot == drawnSnapshot) {
+            return;
+        }
+        boolean fullRepaint = fullRepaintRequired || drawnSnapshot == null
+                || drawnSnapshot.getWidth() != snapshot.getWidth()
+                || drawnSnapshot.getHeight() != snapshot.getHeight();
+        GameSnapshot previous = fullRepaint ? null : drawnSnapshot;
+        if (pixelRendering) {
+            drawPixels(snapshot, previous);
+            if (fullRepaint) {
+                graphicsContext.clearRect(0, 0, fieldWidth, fieldHeight);
+                graphicsContext.strokeRect(0, 0, fieldWidth, fieldHeight);
+            }
+        }
+        else {
+            drawCells(snapshot, previous);
+        }
+        drawnSnapshot = snapshot;
+        fullRepaintRequired = false;
+    }
+
+    private void drawCells(GameSnapshot snapshot, GameSnapshot previous) {
+        for (int i = 0; i < snapshot.getWidth(); ++i) {
+            for (int j = 0; j < snapshot.getHeight(); ++j) {
+                int cell = snapshot.getCellOrdinal(i, j);
+                if (previous != null && previous.getCellOrdinal(i, j) == cell) {
+                    continue;
+                }
+                graphicsContext.setFill(cellColors[cell]);
                 graphicsContext.fillRect(i * cellSize, j * cellSize, cellSize, cellSize);
             }
         }
         graphicsContext.strokeRect(0, 0, fieldWidth, fieldHeight);
     }
 
+    private void drawViewport(GameSnapshot snapshot) {
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        followHead(snapshot);
+        boolean fullRepaint = fullRepaintRequired || drawnSnapshot == null
+                || drawnSnapshot.getWidth() != width || drawnSnapshot.getHeight() != height
+                || cameraX != drawnCameraX || cameraY != drawnCameraY;
+        if (!fullRepaint && snapshot == drawnSnapshot) {
+            return;
+        }
+        GameSnapshot previous = fullRepaint ? null : drawnSnapshot;
+        for (int j = 0; j < viewRows; ++j) {
+            int y = Math.floorMod(cameraY + j, height);
+            for (int i = 0; i < viewColumns; ++i) {
+                int x = Math.floorMod(cameraX + i, width);
+                int cell = snapshot.getCellOrdinal(x, y);
+                if (previous != null && previous.getCellOrdinal(x, y) == cell) {
+                    continue;
+                }
+                graphicsContext.setFill(cellColors[cell]);
+                graphicsContext.fillRect(i * cellSize, j * cellSize, cellSize, cellSize);
+            }
+        }
+        graphicsContext.strokeRect(0, 0, fieldWidth, fieldHeight);
+        drawnSnapshot = snapshot;
+        drawnCameraX = cameraX;
+        drawnCameraY = cameraY;
+        fullRepaintRequired = false;
+
+        minimapRenderer.request(snapshot);
+        minimapRenderer.present(cameraX, cameraY, viewColumns, viewRows);
+    }
+
+    // Камера ставит свою голову в центр окна; без своей змеи (зритель, повтор) камера остаётся, где её оставил WASD
+    private void followHead(GameSnapshot snapshot) {
+        for (SnakesProto.GameState.Snake snake : snapshot.getState().getSnakesList()) {
+            if (snake.getPlayerId() == model.getMyId() && snake.getPointsCount() > 0) {
+                SnakesProto.GameState.Coord head = snake.getPoints(0);
+                cameraX = Math.floorMod(head.getX() - viewColumns / 2, snapshot.getWidth());
+                cameraY = Math.floorMod(head.getY() - viewRows / 2, snapshot.getHeight());
+                return;
+            }
+        }
+    }
+
+    private void panCamera(int dx, int dy) {
+        if (!viewportMode) {
+            return;
+        }
+        int stepX = Math.max(1, viewColumns / 4);
+        int stepY = Math.max(1, viewRows / 4);
+        cameraX = Math.floorMod(cameraX + dx * stepX, model.getFieldWidth());
+        cameraY = Math.floorMod(cameraY + dy * stepY, model.getFieldHeight());
+        if (drawnSnapshot != null) {
+            drawViewport(drawnSnapshot);
+        }
+    }
+
+    // Изменившиеся клетки пишутся прямо в буфер, в текстуру уходит один прямоугольник, охватывающий их все
+    private void drawPixels(GameSnapshot snapshot, GameSnapshot previous) {
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        if (pixelBuffer.getWidth() != width || pixelBuffer.getHeight() != height) {
+            return;
+        }
+        pixelBuffer.updateBuffer(buffer -> {
+            IntBuffer data = buffer.getBuffer();
+            int minX = width;
+            int minY = height;
+            int maxX = -1;
+            int maxY = -1;
+            for (int j = 0; j < height; ++j) {
+                for (int i = 0; i < width; ++i) {
+                    int cell = snapshot.getCellOrdinal(i, j);
+                    if (previous != null && previous.getCellOrdinal(i, j) == cell) {
+                        continue;
+                    }
+                    data.put(j * width + i, cellArgb[cell]);
+                    minX = Math.min(minX, i);
+                    maxX = Math.max(maxX, i);
+                    minY = Math.min(minY, j);
+                    maxY = j;
+                }
+            }
+            if (maxX < 0) {
+                return Rectangle2D.EMPTY;
+            }
+            return new Rectangle2D(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        });
+    }
+
+    private static int toArgbPre(Color color) {
+        double alpha = color.getOpacity();
+        int a = (int) Math.round(alpha * 255);
+        int r = (int) Math.round(color.getRed() * alpha * 255);
+        int g = (int) Math.round(color.getGreen() * alpha * 255);
+        int b = (int) Math.round(color.getBlue() * alpha * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
     public void onKeyPressed(KeyEvent event) {
+        switch (event.getCode()) {
+            case W:
+                panCamera(0, -1);
+                return;
+            case A:
+                panCamera(-1, 0);
+                return;
+            case S:
+                panCamera(0, 1);
+                return;
+            case D:
+                panCamera(1, 0);
+                return;
+        }
+        if (replayPlayer != null) {
+            onReplayKeyPressed(event);
+            return;
+        }
         switch (event.getCode()) {
             case UP:
                 controller.moveUp();
@@ -127,13 +405,62 @@ public class GameView {
         }
     }
 
+    private void onReplayKeyPressed(KeyEvent event) {
+        switch (event.getCode()) {
+            case SPACE:
+                replayPlayer.togglePause();
+                break;
+            case UP:
+                replayPlayer.faster();
+                break;
+            case DOWN:
+                replayPlayer.slower();
+                break;
+            case RIGHT:
+                replayPlayer.seekRelative(REPLAY_SEEK_STEP);
+                requestFullRepaint();
+                break;
+            case LEFT:
+                replayPlayer.seekRelative(-REPLAY_SEEK_STEP);
+                requestFullRepaint();
+                break;
+            case HOME:
+                replayPlayer.seekToStart();
+                requestFullRepaint();
+                break;
+            case END:
+                replayPlayer.seekToEnd();
+                requestFullRepaint();
+                break;
+        }
+    }
+
+    private void stopRendering() {
+        if (minimapRenderer != null) {
+            minimapRenderer.shutdown();
+        }
+        if (frameBridge != null) {
+            frameBridge.stop();
+            System.out.println("Кадров нарисовано: " + frameBridge.getRenderedFrames()
+                    + ", пропущено снимков: " + frameBridge.getDroppedFrames());
+        }
+    }
+
     @FXML
     public void exitApplication() {
+        stopRendering();
+        if (replayPlayer != null) {
+            replayPlayer.stop();
+        }
         model.destroy();
         Platform.exit();
     }
 
     public void exitGame(MouseEvent event) throws IOException {
+        stopRendering();
+        if (replayPlayer != null) {
+            replayPlayer.stop();
+        }
         model.destroy();
         Parent parent = FXMLLoader.load(getClass().getResource("/fxml/menu.fxml"));
         Scene scene = new Scene(parent);
@@ -0,0 +1,94 @@
+package mvc.view;
+
+import main.java.net.protocol.SnakesProto;
+
+import java.util.*;
+
+/*
+ * Рейтинг игроков, упорядоченный по очкам (при равенстве - по id).
+ * Игрок переставляется в дереве, только если изменились его очки или имя,
+ * поэтому обновление по очередному состоянию стоит O(изменившихся * log n), а не сортировки всех.
+ */
+public class Leaderboard {
+    public final static class Entry {
+        private final int id;
+        private String name;
+        private int score;
+
+        private Entry(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+
+    private final static Comparator<Entry> ORDER =
+            Comparator.comparingInt((Entry entry) -> -entry.score).thenComparingInt(entry -> entry.id);
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ordered = new TreeSet<>(ORDER);
+    private final Set<Integer> present = new HashSet<>();
+
+    // true, если порядок, имена или очки изменились
+    public boolean update(SnakesProto.GamePlayers players) {
+        boolean changed = false;
+        present.clear();
+        for (SnakesProto.GamePlayer player : players.getPlayersList()) {
+            present.add(player.getId());
+            Entry entry = entries.get(player.getId());
+            if (entry == null) {
+                entry = new Entry(player.getId());
+                entry.name = player.getName();
+                entry.score = player.getScore();
+                entries.put(entry.id, entry);
+                ordered.add(entry);
+                changed = true;
+            }
+            else if (entry.score != player.getScore() || !entry.name.equals(player.getName())) {
+                ordered.remove(entry);
+                entry.name = player.getName();
+                entry.score = player.getScore();
+                ordered.add(entry);
+                changed = true;
+            }
+        }
+        if (entries.size() != present.size()) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (!present.contains(entry.id)) {
+                    ordered.remove(entry);
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    public int size() {
+        return ordered.size();
+    }
+
+    // Первые limit игроков по очкам
+    public List<Entry> top(int limit) {
+        List<Entry> result = new ArrayList<>(Math.min(limit, ordered.size()));
+        for (Entry entry : ordered) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+}
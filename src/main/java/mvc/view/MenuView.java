@@ -5,8 +5,13 @@ import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.input.MouseEvent;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import mvc.model.GameModel;
+import replay.ReplayPlayer;
+import replay.ReplayReader;
 
+import java.io.File;
 import java.io.IOException;
 
 public class MenuView {
@@ -31,6 +36,32 @@ public class MenuView {
         parent.requestFocus();
     }
 
+    public void replayButtonClicked(MouseEvent event) throws IOException {
+        Stage stage = (Stage)((Node) event.getSource()).getScene().getWindow();
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Выберите файл записи");
+        File file = fileChooser.showOpenDialog(stage);
+        if (file == null) {
+            return;
+        }
+
+        ReplayReader reader = new ReplayReader(file.toPath());
+        GameModel model = new GameModel(reader.getConfig());
+        ReplayPlayer replayPlayer = new ReplayPlayer(reader, model);
+        FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/game_view.fxml"));
+        GameView gameView = new GameView(model);
+        gameView.setReplayPlayer(replayPlayer);
+        model.setGameView(gameView);
+        loader.setControllerFactory(c -> gameView);
+        Parent parent = loader.load();
+        Scene scene = new Scene(parent);
+        stage.setScene(scene);
+        stage.setOnCloseRequest(e -> ((GameView) loader.getController()).exitApplication());
+        stage.show();
+        parent.requestFocus();
+        replayPlayer.start();
+    }
+
     public void exitButtonClicked(MouseEvent event) {
         Stage stage = (Stage)((Node) event.getSource()).getScene().getWindow();
         stage.close();
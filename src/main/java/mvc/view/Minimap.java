@@ -0,0 +1,183 @@
+package mvc.view;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import mvc.model.GameModel;
+import mvc.model.GameSnapshot;
+import net.protocol.Constants;
+import net.protocol.ProtocolExtensions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Уменьшенная карта всего поля для режима окна просмотра.
+ * Уменьшение (проход по всем клеткам) делается в своём потоке не чаще раза в MINIMAP_PERIOD_MS,
+ * поток интерфейса только копирует готовые пиксели в буфер и дорисовывает рамку окна просмотра.
+ * Из блока клеток, попавших в один пиксель, берётся самая важная: голова важнее тела, тело важнее еды.
+ * В режиме окрестностей поверх добавляются области сводки мастера, где есть змеи.
+ */
+public class Minimap {
+    private final static int MAX_SIZE = 160;
+    private final static int FRAME_ARGB = 0xFF000000;
+
+    private final static int[] cellPriority = new int[GameModel.CellType.values().length];
+    static {
+        cellPriority[GameModel.CellType.EMPTY.ordinal()] = 0;
+        cellPriority[GameModel.CellType.FOOD.ordinal()] = 1;
+        cellPriority[GameModel.CellType.ZOMBIE_BODY.ordinal()] = 2;
+        cellPriority[GameModel.CellType.ENEMY_BODY.ordinal()] = 3;
+        cellPriority[GameModel.CellType.ZOMBIE_HEAD.ordinal()] = 4;
+        cellPriority[GameModel.CellType.ENEMY_HEAD.ordinal()] = 5;
+        cellPriority[GameModel.CellType.MY_BODY.ordinal()] = 6;
+        cellPriority[GameModel.CellType.MY_HEAD.ordinal()] = 7;
+    }
+
+    private final int[] cellArgb;
+    private final int scale;
+    private final int width;
+    private final int height;
+    private final PixelBuffer<IntBuffer> pixelBuffer;
+    private final ExecutorService executor;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final AtomicReference<int[]> ready = new AtomicReference<>();
+    private volatile long lastRequestTime = 0L;
+    private int[] shownPixels;
+    private int shownViewX = -1;
+    private int shownViewY = -1;
+
+    public Minimap(ImageView view, int boardWidth, int boardHeight, int[] cellArgb) {
+        this.cellArgb = cellArgb;
+        scale = Math.max(1, (Math.max(boardWidth, boardHeight) + MAX_SIZE - 1) / MAX_SIZE);
+        width = (boardWidth + scale - 1) / scale;
+        height = (boardHeight + scale - 1) / scale;
+        IntBuffer buffer = ByteBuffer.allocateDirect(width * height * Integer.BYTES)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        pixelBuffer = new PixelBuffer<>(width, height, buffer, PixelFormat.getIntArgbPreInstance());
+        view.setImage(new WritableImage(pixelBuffer));
+        view.setSmooth(false);
+        view.setVisible(true);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "minimap");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Вызывается в потоке интерфейса; пересчёт запускается, только если предыдущий закончен и период прошёл
+    public void request(GameSnapshot snapshot) {
+        long now = System.currentTimeMillis();
+        if (now - lastRequestTime < Constants.MINIMAP_PERIOD_MS || !busy.compareAndSet(false, true)) {
+            return;
+        }
+        lastRequestTime = now;
+        executor.execute(() -> {
+            try {
+                ready.set(downsample(snapshot));
+            }
+            finally {
+                busy.set(false);
+            }
+        });
+    }
+
+    private int[] downsample(GameSnapshot snapshot) {
+        int boardWidth = snapshot.getWidth();
+        int boardHeight = snapshot.getHeight();
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            int fromY = y * scale;
+            int toY = Math.min(boardHeight, fromY + scale);
+            for (int x = 0; x < width; ++x) {
+                int fromX = x * scale;
+                int toX = Math.min(boardWidth, fromX + scale);
+                int best = GameModel.CellType.EMPTY.ordinal();
+                for (int j = fromY; j < toY; ++j) {
+                    for (int i = fromX; i < toX; ++i) {
+                        int cell = snapshot.getCellOrdinal(i, j);
+                        if (cellPriority[cell] > cellPriority[best]) {
+                            best = cell;
+                        }
+                    }
+                }
+                result[y * width + x] = cellArgb[best];
+            }
+        }
+        if (ProtocolExtensions.isAreaFiltered(snapshot.getState())) {
+            markSummary(ProtocolExtensions.getAreaSummary(snapshot.getState()), boardWidth, boardHeight, result);
+        }
+        return result;
+    }
+
+    // Мастер прислал только окрестность: змей за её пределами показываем точкой в центре их области сводки
+    private void markSummary(List<Long> summary, int boardWidth, int boardHeight, int[] result) {
+        if (summary.size() < 2) {
+            return;
+        }
+        int regionsX = summary.get(0).intValue();
+        int regionsY = summary.get(1).intValue();
+        if (regionsX <= 0 || regionsY <= 0 || summary.size() < 2 + regionsX * regionsY) {
+            return;
+        }
+        int empty = cellArgb[GameModel.CellType.EMPTY.ordinal()];
+        for (int ry = 0; ry < regionsY; ++ry) {
+            for (int rx = 0; rx < regionsX; ++rx) {
+                if (summary.get(2 + ry * regionsX + rx) == 0) {
+                    continue;
+                }
+                int x = (rx * boardWidth + boardWidth / 2) / regionsX / scale;
+                int y = (ry * boardHeight + boardHeight / 2) / regionsY / scale;
+                if (result[y * width + x] == empty) {
+                    result[y * width + x] = cellArgb[GameModel.CellType.ENEMY_HEAD.ordinal()];
+                }
+            }
+        }
+    }
+
+    // Поток интерфейса: выложить готовую карту (если есть) и рамку окна просмотра, координаты в клетках поля
+    public void present(int viewX, int viewY, int viewWidth, int viewHeight) {
+        int[] pixels = ready.getAndSet(null);
+        if (pixels != null) {
+            shownPixels = pixels;
+        }
+        else if (viewX == shownViewX && viewY == shownViewY) {
+            return;
+        }
+        if (shownPixels == null) {
+            return;
+        }
+        shownViewX = viewX;
+        shownViewY = viewY;
+        int[] source = shownPixels;
+        pixelBuffer.updateBuffer(buffer -> {
+            IntBuffer data = buffer.getBuffer();
+            data.clear();
+            data.put(source);
+            int left = viewX / scale;
+            int top = viewY / scale;
+            int right = left + Math.max(1, viewWidth / scale) - 1;
+            int bottom = top + Math.max(1, viewHeight / scale) - 1;
+            for (int x = left; x <= right; ++x) {
+                data.put(Math.floorMod(top, height) * width + Math.floorMod(x, width), FRAME_ARGB);
+                data.put(Math.floorMod(bottom, height) * width + Math.floorMod(x, width), FRAME_ARGB);
+            }
+            for (int y = top; y <= bottom; ++y) {
+                data.put(Math.floorMod(y, height) * width + Math.floorMod(left, width), FRAME_ARGB);
+                data.put(Math.floorMod(y, height) * width + Math.floorMod(right, width), FRAME_ARGB);
+            }
+            return null;
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -13,6 +13,7 @@ import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import main.java.net.protocol.SnakesProto;
 import mvc.model.GameModel;
+import net.protocol.Constants;
 
 import java.io.IOException;
 
@@ -43,14 +44,14 @@ public class NewGameView {
 
     public void initialize() {
         slider1.setMin(10);
-        slider1.setMax(100);
+        slider1.setMax(Constants.MAX_FIELD_SIDE);
         slider1.setValue(40);
         label1.setText(String.format("%d", Math.round(slider1.getValue())));
         slider1.valueProperty().addListener((observableValue, old_val, new_val) ->
                 label1.setText(String.format("%d", Math.round((double) new_val))));
 
         slider2.setMin(10);
-        slider2.setMax(100);
+        slider2.setMax(Constants.MAX_FIELD_SIDE);
         slider2.setValue(30);
         label2.setText(String.format("%d", Math.round(slider2.getValue())));
         slider2.valueProperty().addListener((observableValue, old_val, new_val) ->
@@ -0,0 +1,150 @@
+package net.client;
+
+import main.java.net.protocol.SnakesProto;
+import mvc.model.GameModel;
+import net.protocol.Constants;
+import net.protocol.ProtocolExtensions;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Отложенные подтверждения для узлов, поддерживающих FEATURE_SACK.
+ * Вместо AckMsg на каждое сообщение копим номера в течение ACK_DELAY_MS и отправляем одним AckMsg
+ * (msg_seq = наибольший номер, остальные - диапазонами в SACK_FIELD), либо прицепляем диапазоны
+ * к ближайшему исходящему сообщению этому узлу.
+ * Накопительное подтверждение "всё до N" здесь невозможно: msg_seq у отправителя общий на всех получателей,
+ * и по номерам нельзя понять, какие из них предназначались нам.
+ */
+public class AckCoalescer {
+    private final static int MAX_PENDING_ACKS = 64;
+
+    private final GameModel model;
+    private final PeerFeatures peerFeatures;
+    // будит поток отправки, когда у него появился новый срок
+    private final Runnable wakeUp;
+    private final Map<InetSocketAddress, PendingAcks> pendingAcks;
+
+    private static class PendingAcks {
+        private final TreeSet<Long> seqs = new TreeSet<>();
+        private long firstPendingTime = 0L;
+        private int receiverId;
+    }
+
+    public AckCoalescer(GameModel model, PeerFeatures peerFeatures, Runnable wakeUp) {
+        this.model = model;
+        this.peerFeatures = peerFeatures;
+        this.wakeUp = wakeUp;
+        pendingAcks = new ConcurrentHashMap<>();
+    }
+
+    public boolean isSackSupported(InetSocketAddress peer) {
+        return Constants.SACK_ENABLED && peerFeatures.supports(peer, ProtocolExtensions.FEATURE_SACK);
+    }
+
+    // false - узел не умеет SACK, подтверждать нужно обычным AckMsg
+    public boolean defer(long seq, int receiverId, InetAddress address, int port) {
+        InetSocketAddress peer = new InetSocketAddress(address, port);
+        if (!isSackSupported(peer)) {
+            return false;
+        }
+        PendingAcks pending = pendingAcks.computeIfAbsent(peer, p -> new PendingAcks());
+        boolean newDeadline;
+        synchronized (pending) {
+            if (pending.seqs.isEmpty()) {
+                pending.firstPendingTime = System.currentTimeMillis();
+            }
+            pending.seqs.add(seq);
+            pending.receiverId = receiverId;
+            newDeadline = pending.seqs.size() == 1 || pending.seqs.size() == MAX_PENDING_ACKS;
+        }
+        if (newDeadline) {
+            wakeUp.run();
+        }
+        return true;
+    }
+
+    // Диапазоны для прицепления к сообщению этому узлу, null если подтверждать нечего
+    public long[] takeRanges(InetAddress address, int port) {
+        return takeRanges(new InetSocketAddress(address, port));
+    }
+
+    public long[] takeRanges(InetSocketAddress peer) {
+        PendingAcks pending = pendingAcks.get(peer);
+        if (pending == null) {
+            return null;
+        }
+        synchronized (pending) {
+            return drain(pending);
+        }
+    }
+
+    // Отдельные AckMsg для узлов, у которых подтверждения ждут дольше ACK_DELAY_MS
+    public List<MessageWithAdditionalInfo> flushDue() {
+        List<MessageWithAdditionalInfo> result = Collections.emptyList();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<InetSocketAddress, PendingAcks> entry : pendingAcks.entrySet()) {
+            PendingAcks pending = entry.getValue();
+            long[] ranges;
+            long lastSeq;
+            int receiverId;
+            synchronized (pending) {
+                if (pending.seqs.isEmpty() || (now - pending.firstPendingTime < Constants.ACK_DELAY_MS
+                        && pending.seqs.size() < MAX_PENDING_ACKS)) {
+                    continue;
+                }
+                lastSeq = pending.seqs.last();
+                receiverId = pending.receiverId;
+                ranges = drain(pending);
+            }
+            SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
+            builder.setAck(SnakesProto.GameMessage.AckMsg.getDefaultInstance());
+            builder.setMsgSeq(lastSeq);
+            builder.setReceiverId(receiverId);
+            builder.setSenderId(model.getMyId());
+            if (result.isEmpty()) {
+                result = new ArrayList<>();
+            }
+            result.add(new MessageWithAdditionalInfo(
+                    ProtocolExtensions.decorate(builder.build(), ranges),
+                    entry.getKey().getAddress(), entry.getKey().getPort()));
+        }
+        return result;
+    }
+
+    // Когда flushDue отдаст следующий AckMsg, Long.MAX_VALUE - подтверждать нечего
+    public long nextFlushTime() {
+        long result = Long.MAX_VALUE;
+        for (PendingAcks pending : pendingAcks.values()) {
+            synchronized (pending) {
+                if (pending.seqs.isEmpty()) {
+                    continue;
+                }
+                result = Math.min(result, pending.seqs.size() >= MAX_PENDING_ACKS ?
+                        0L : pending.firstPendingTime + Constants.ACK_DELAY_MS);
+            }
+        }
+        return result;
+    }
+
+    private static long[] drain(PendingAcks pending) {
+        if (pending.seqs.isEmpty()) {
+            return null;
+        }
+        long[] ranges = new long[pending.seqs.size() * 2];
+        int size = 0;
+        for (long seq : pending.seqs) {
+            if (size > 0 && ranges[size - 1] + 1 == seq) {
+                ranges[size - 1] = seq;
+            }
+            else {
+                ranges[size++] = seq;
+                ranges[size++] = seq;
+            }
+        }
+        pending.seqs.clear();
+        return Arrays.copyOf(ranges, size);
+    }
+}
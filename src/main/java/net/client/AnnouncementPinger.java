@@ -2,13 +2,13 @@ package net.client;
 
 import main.java.net.protocol.SnakesProto.GameMessage;
 import mvc.model.GameModel;
+import mvc.model.GameSnapshot;
 import net.protocol.Constants;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.TimerTask;
 
-public class AnnouncementPinger extends TimerTask {
+public class AnnouncementPinger implements Runnable {
     private final InetAddress multicastAddress;
     private final GameModel model;
 
@@ -22,10 +22,10 @@ public class AnnouncementPinger extends TimerTask {
         GameMessage.Builder gameMessage = GameMessage.newBuilder();
         GameMessage.AnnouncementMsg.Builder announcementMsg = GameMessage.AnnouncementMsg.newBuilder();
         announcementMsg.setConfig(model.getGameConfig());
-        announcementMsg.setPlayers(model.getGamePlayers());
+        GameSnapshot snapshot = model.getSnapshot();
+        announcementMsg.setPlayers(snapshot != null ? snapshot.getPlayers() : model.getGamePlayers());
         gameMessage.setAnnouncement(announcementMsg);
-        gameMessage.setMsgSeq(model.getLastMsgSeq());
-        model.iterateLastMsqSeq();
+        gameMessage.setMsgSeq(model.nextMsgSeq());
         model.getUnicastSender().sendMessage(gameMessage.build(), multicastAddress, Constants.MULTICAST_PORT);
     }
 }
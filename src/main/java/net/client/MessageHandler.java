@@ -2,6 +2,8 @@ package net.client;
 
 import main.java.net.protocol.SnakesProto;
 import mvc.model.GameModel;
+import net.protocol.LockstepFrame;
+import net.protocol.ProtocolExtensions;
 
 import java.net.InetAddress;
 
@@ -13,70 +15,107 @@ public class MessageHandler {
     }
 
     public void handleMessage(SnakesProto.GameMessage message, InetAddress address, int port) {
-        int playerId = model.findPlayerIdByIpAndPort(address, port);
-        if (playerId < 0 && !message.hasJoin()) {
-            playerId = 1;
-            if (model.getPlayerMap().containsKey(playerId)) {
-                model.getPlayerMap().get(playerId).setIpAddress(address.getHostName());
-                model.getPlayerMap().get(playerId).setPort(port);
-            }
+        int foundId = model.findPlayerIdByIpAndPort(address, port);
+        if (foundId < 0 && !message.hasJoin()) {
+            foundId = 1;
+            model.execute(() -> {
+                if (model.getPlayerMap().containsKey(1)) {
+                    model.getPlayerMap().get(1).setIpAddress(address.getHostName());
+                    model.getPlayerMap().get(1).setPort(port);
+                }
+            });
         }
+        int playerId = foundId;
+        model.getUnicastSender().getPeerFeatures().update(address, port, ProtocolExtensions.getFeatures(message));
+        model.getUnicastSender().removeAckedRanges(ProtocolExtensions.getSackRanges(message));
         if (playerId > 0 && !message.hasAck() && !message.hasError()) {
             if (model.findMsgSeq(playerId, message.getMsgSeq())) return;
         }
+        long steerAck = ProtocolExtensions.getSteerAck(message);
         switch (message.getTypeCase()) {
             case ACK:
                 if (model.getMyId() < 0) {
-                    model.setMyId(message.getReceiverId());
+                    model.execute(() -> {
+                        if (model.getMyId() < 0) {
+                            model.setMyId(message.getReceiverId());
+                        }
+                    });
                 }
                 model.getUnicastSender().removeMessageFromQueue(message.getMsgSeq());
                 break;
             case JOIN:
-                int receiverId = model.tryJoin(message.getJoin().getName(), address, port);
-                if (receiverId > 0) {
-                    model.findMsgSeq(receiverId, message.getMsgSeq());
-                    model.getUnicastSender().sendMessage(buildAckMsg(message, receiverId), address, port);
-                }
-                else {
-                    model.getUnicastSender().sendMessage(buildErrorMsg(message, "Мест нет"),
-                            address, port);
-                }
+                model.execute(() -> {
+                    int receiverId = model.tryJoin(message.getJoin().getName(), address, port);
+                    if (receiverId > 0) {
+                        model.findMsgSeq(receiverId, message.getMsgSeq());
+                        model.getUnicastSender().sendMessage(buildAckMsg(message, receiverId), address, port);
+                    }
+                    else {
+                        model.getUnicastSender().sendMessage(buildErrorMsg(message, "Мест нет"),
+                                address, port);
+                    }
+                });
                 break;
             case STATE:
                 /*if (model.getNodeRole() == SnakesProto.NodeRole.MASTER) {
                     return;
                 }*/
-                model.setState(message.getState().getState());
-                model.getUnicastSender().sendMessage(buildAckMsg(message, message.getSenderId()), address, port);
+                model.execute(() -> {
+                    model.acknowledgeSteers(steerAck);
+                    model.setState(message.getState().getState());
+                });
+                sendAck(message, message.getSenderId(), address, port);
                 break;
             case STEER:
-                if (model.getLastSteerMsg().containsKey(message.getSenderId())) {
-                    if (model.getLastSteerMsg().get(message.getSenderId()) > message.getMsgSeq()) {
-                        return;
-                    }
-                }
-                model.getLastSteerMsg().put(message.getSenderId(), message.getMsgSeq());
-                model.addNewSteerMsg(message.getSenderId(), message.getSteer());
-                model.getUnicastSender().sendMessage(buildAckMsg(message, message.getSenderId()), address, port);
+                // устаревший поворот не применяем, но подтверждаем, иначе его будут повторять
+                model.addNewSteerMsg(message.getSenderId(), message.getMsgSeq(), message.getSteer());
+                sendAck(message, message.getSenderId(), address, port);
                 break;
             case ROLE_CHANGE:
-                if (model.getPlayerMap().containsKey(playerId)) {
-                    model.getPlayerMap().get(playerId).setNodeRole(message.getRoleChange().getSenderRole());
-                }
-                if (message.getRoleChange().getSenderRole() == SnakesProto.NodeRole.MASTER) {
-                    InetAddress oldAddress = model.getMasterInetAddress();
-                    int oldPort = model.getMasterPort();
-                    model.setMasterInetAddress(address);
-                    model.setMasterPort(port);
-                    model.getUnicastSender().readdressMessages(oldAddress, oldPort, address, port);
-                }
-                if (model.getNodeRole() != message.getRoleChange().getReceiverRole()) {
-                    model.setMyNodeRole(message.getRoleChange().getReceiverRole());
-                }
-                model.getUnicastSender().sendMessage(buildAckMsg(message, message.getSenderId()), address, port);
+                model.execute(() -> handleRoleChange(message, playerId, address, port));
+                sendAck(message, message.getSenderId(), address, port);
                 break;
             case PING:
-                model.getUnicastSender().sendMessage(buildAckMsg(message, message.getSenderId()), address, port);
+                if (ProtocolExtensions.hasLockstepFrame(message)) {
+                    try {
+                        LockstepFrame frame = ProtocolExtensions.getLockstepFrame(message);
+                        model.execute(() -> {
+                            model.acknowledgeSteers(steerAck);
+                            model.onLockstepFrame(frame);
+                        });
+                    }
+                    catch (RuntimeException ex) {
+                        // повтор того же msg_seq будет отброшен как дубликат, так что без кадра только полное состояние
+                        ex.printStackTrace();
+                        model.execute(model::requestResync);
+                    }
+                }
+                else if (ProtocolExtensions.isResyncRequest(message)) {
+                    model.requestFullState(playerId);
+                }
+                sendAck(message, message.getSenderId(), address, port);
+        }
+    }
+
+    private void handleRoleChange(SnakesProto.GameMessage message, int playerId, InetAddress address, int port) {
+        if (model.getPlayerMap().containsKey(playerId)) {
+            model.getPlayerMap().get(playerId).setNodeRole(message.getRoleChange().getSenderRole());
+        }
+        if (message.getRoleChange().getSenderRole() == SnakesProto.NodeRole.MASTER) {
+            InetAddress oldAddress = model.getMasterInetAddress();
+            int oldPort = model.getMasterPort();
+            model.setMasterInetAddress(address);
+            model.setMasterPort(port);
+            model.getUnicastSender().readdressMessages(oldAddress, oldPort, address, port);
+        }
+        if (model.getNodeRole() != message.getRoleChange().getReceiverRole()) {
+            model.setMyNodeRole(message.getRoleChange().getReceiverRole());
+        }
+    }
+
+    private void sendAck(SnakesProto.GameMessage message, int receiverId, InetAddress address, int port) {
+        if (!model.getUnicastSender().getAckCoalescer().defer(message.getMsgSeq(), receiverId, address, port)) {
+            model.getUnicastSender().sendMessage(buildAckMsg(message, receiverId), address, port);
         }
     }
 
@@ -0,0 +1,45 @@
+package net.client;
+
+import main.java.net.protocol.SnakesProto;
+import net.protocol.ProtocolExtensions;
+
+/*
+ * Классы сообщений в порядке отправки за один проход UnicastSender.
+ * Полосой узла ограничиваются только состояния (и кадры lockstep): остальные сообщения маленькие,
+ * а без пингов не обнаружить отвалившийся узел (и пинг создаётся заново каждый проход, пока не уйдёт).
+ */
+public enum MessagePriority {
+    CONTROL(false),         // смена ролей, вход в игру, ошибки - критичны при переключении мастера
+    INTERACTIVE(false),     // повороты и подтверждения
+    STATE(true),
+    BACKGROUND(false);      // объявления и пинги
+
+    private final boolean shaped;
+
+    MessagePriority(boolean shaped) {
+        this.shaped = shaped;
+    }
+
+    public boolean isShaped() {
+        return shaped;
+    }
+
+    public static MessagePriority of(SnakesProto.GameMessage message) {
+        switch (message.getTypeCase()) {
+            case ROLE_CHANGE:
+            case JOIN:
+            case ERROR:
+                return CONTROL;
+            case STEER:
+            case ACK:
+                return INTERACTIVE;
+            case STATE:
+                return STATE;
+            case PING:
+                // кадр lockstep заменяет состояние
+                return ProtocolExtensions.hasLockstepFrame(message) ? STATE : BACKGROUND;
+            default:
+                return BACKGROUND;
+        }
+    }
+}
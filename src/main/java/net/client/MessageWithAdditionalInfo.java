@@ -1,19 +1,30 @@
 package net.client;
 
 import main.java.net.protocol.SnakesProto;
+import net.protocol.ProtocolExtensions;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MessageWithAdditionalInfo {
     private SnakesProto.GameMessage message;
     private InetAddress address;
     private int port;
-    private long lastSentTime = 0L;
+    // ключ узла в очередях отправки, чтобы не собирать адрес на каждом проходе
+    private InetSocketAddress peer;
+    // сериализуется один раз, повторы и пачки отправляют те же байты
+    private byte[] bytes;
+    // пишет поток отправки, читают поток приёма (подтверждения, RTT) и поток игры
+    private volatile long lastSentTime = 0L;
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private volatile boolean throttled = false;
 
     public MessageWithAdditionalInfo(SnakesProto.GameMessage message, InetAddress address, int port) {
         this.message = message;
         this.address = address;
         this.port = port;
+        peer = new InetSocketAddress(address, port);
     }
 
     public SnakesProto.GameMessage getMessage() {
@@ -22,6 +33,15 @@ public class MessageWithAdditionalInfo {
 
     public void setMessage(SnakesProto.GameMessage message) {
         this.message = message;
+        bytes = null;
+    }
+
+    // Сообщение с нашей маской расширений, без выборочных подтверждений - они у каждой отправки свои
+    public byte[] getBytes() {
+        if (bytes == null) {
+            bytes = ProtocolExtensions.decorate(message, null).toByteArray();
+        }
+        return bytes;
     }
 
     public InetAddress getAddress() {
@@ -30,6 +50,7 @@ public class MessageWithAdditionalInfo {
 
     public void setAddress(InetAddress address) {
         this.address = address;
+        peer = new InetSocketAddress(address, port);
     }
 
     public int getPort() {
@@ -38,6 +59,11 @@ public class MessageWithAdditionalInfo {
 
     public void setPort(int port) {
         this.port = port;
+        peer = new InetSocketAddress(address, port);
+    }
+
+    public InetSocketAddress getPeer() {
+        return peer;
     }
 
     public long getLastSentTime() {
@@ -47,4 +73,20 @@ public class MessageWithAdditionalInfo {
     public void setLastSentTime(long lastSentTime) {
         this.lastSentTime = lastSentTime;
     }
+
+    public int getSentCount() {
+        return sentCount.get();
+    }
+
+    public void incrementSentCount() {
+        sentCount.incrementAndGet();
+    }
+
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    public void setThrottled(boolean throttled) {
+        this.throttled = throttled;
+    }
 }
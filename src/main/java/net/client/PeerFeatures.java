@@ -0,0 +1,28 @@
+package net.client;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Расширения протокола, о поддержке которых узлы сообщили в своих сообщениях
+public class PeerFeatures {
+    private final Map<InetSocketAddress, Long> features;
+
+    public PeerFeatures() {
+        features = new ConcurrentHashMap<>();
+    }
+
+    public void update(InetAddress address, int port, long peerFeatures) {
+        features.put(new InetSocketAddress(address, port), peerFeatures);
+    }
+
+    public boolean supports(InetSocketAddress peer, long feature) {
+        Long peerFeatures = features.get(peer);
+        return peerFeatures != null && (peerFeatures & feature) != 0;
+    }
+
+    public boolean supports(InetAddress address, int port, long feature) {
+        return supports(new InetSocketAddress(address, port), feature);
+    }
+}
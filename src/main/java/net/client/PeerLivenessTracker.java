@@ -0,0 +1,126 @@
+package net.client;
+
+import mvc.model.GameModel;
+import net.protocol.Constants;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Отслеживание отвалившихся узлов: у каждого игрока срок, до которого от него должно прийти сообщение,
+ * сроки лежат в куче, отдельный поток спит до ближайшего и удаляет игрока ровно в момент истечения,
+ * не дожидаясь входящих пакетов.
+ * Пакет только переписывает срок в deadlines за O(1), запись в куче не трогается:
+ * когда она всплывёт, поток увидит более поздний срок и переложит её заново.
+ */
+public class PeerLivenessTracker implements Runnable {
+    private final GameModel model;
+    private final Map<Integer, Long> deadlines;
+    private final PriorityQueue<Deadline> heap;
+    private final Thread thread;
+    private volatile boolean stopped = false;
+
+    private final static class Deadline {
+        private final int playerId;
+        private final long time;
+
+        private Deadline(int playerId, long time) {
+            this.playerId = playerId;
+            this.time = time;
+        }
+    }
+
+    public PeerLivenessTracker(GameModel model) {
+        this.model = model;
+        deadlines = new ConcurrentHashMap<>();
+        heap = new PriorityQueue<>(Comparator.comparingLong(deadline -> deadline.time));
+        thread = new Thread(this, "liveness-tracker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private long nextDeadline() {
+        return System.currentTimeMillis() + model.getNodeTimeout() + Constants.LIVENESS_GRACE_MS;
+    }
+
+    // Пришло сообщение от игрока
+    public void touch(int playerId) {
+        if (playerId < 0 || playerId == model.getMyId()) {
+            return;
+        }
+        long deadline = nextDeadline();
+        if (deadlines.put(playerId, deadline) == null) {
+            schedule(playerId, deadline);
+        }
+    }
+
+    // Игрок появился в игре: отсчёт идёт с этого момента, даже если он ничего нам не пришлёт
+    public void watch(int playerId) {
+        if (playerId < 0 || playerId == model.getMyId()) {
+            return;
+        }
+        long deadline = nextDeadline();
+        if (deadlines.putIfAbsent(playerId, deadline) == null) {
+            schedule(playerId, deadline);
+        }
+    }
+
+    private void schedule(int playerId, long time) {
+        synchronized (heap) {
+            Deadline deadline = new Deadline(playerId, time);
+            heap.add(deadline);
+            if (heap.peek() == deadline) {
+                heap.notify();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            List<Integer> expired = new ArrayList<>();
+            try {
+                synchronized (heap) {
+                    while (!stopped && expired.isEmpty()) {
+                        Deadline top = heap.peek();
+                        long now = System.currentTimeMillis();
+                        if (top == null) {
+                            heap.wait();
+                            continue;
+                        }
+                        if (top.time > now) {
+                            heap.wait(top.time - now);
+                            continue;
+                        }
+                        heap.poll();
+                        Long current = deadlines.get(top.playerId);
+                        if (current == null) {
+                            continue;
+                        }
+                        if (current > now) {
+                            heap.add(new Deadline(top.playerId, current));
+                            continue;
+                        }
+                        deadlines.remove(top.playerId);
+                        expired.add(top.playerId);
+                    }
+                }
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+            for (int playerId : expired) {
+                model.execute(() -> {
+                    if (playerId != model.getMyId() && model.getPlayerMap().containsKey(playerId)) {
+                        model.removePlayer(playerId);
+                    }
+                });
+            }
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,89 @@
+package net.client;
+
+import net.protocol.Constants;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Оценка RTT до каждого узла по RFC 6298: SRTT и RTTVAR по замерам "отправили - получили подтверждение",
+ * RTO = SRTT + max(G, 4 * RTTVAR) в пределах [RTO_MIN_MS, RTO_MAX_MS].
+ * Замеры берутся только с сообщений, отправленных один раз (алгоритм Карна):
+ * по подтверждению повтора нельзя понять, на какую из копий оно пришло.
+ * Пока замеров нет, RTO равен ping_delay_ms, как было раньше.
+ */
+public class RttEstimator {
+    private final static double ALPHA = 1.0 / 8;
+    private final static double BETA = 1.0 / 4;
+    private final static double CLOCK_GRANULARITY_MS = 1.0;
+    private final static int MAX_BACKOFF_SHIFT = 6;
+
+    private final Map<InetSocketAddress, PeerRtt> peers;
+
+    public static class PeerRtt {
+        private double srtt;
+        private double rttvar;
+        private long samples = 0;
+
+        public synchronized double getSrtt() {
+            return srtt;
+        }
+
+        public synchronized double getRttvar() {
+            return rttvar;
+        }
+
+        public synchronized long getSamples() {
+            return samples;
+        }
+
+        private synchronized void sample(double rtt) {
+            if (samples == 0) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+            }
+            else {
+                rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+                srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+            }
+            samples++;
+        }
+
+        private synchronized long rto() {
+            return Math.round(srtt + Math.max(CLOCK_GRANULARITY_MS, 4 * rttvar));
+        }
+    }
+
+    public RttEstimator() {
+        peers = new ConcurrentHashMap<>();
+    }
+
+    public void onAcked(MessageWithAdditionalInfo message, long ackTime) {
+        if (message.getSentCount() != 1) {
+            return;
+        }
+        peers.computeIfAbsent(new InetSocketAddress(message.getAddress(), message.getPort()), p -> new PeerRtt())
+                .sample(ackTime - message.getLastSentTime());
+    }
+
+    // Через сколько после последней отправки сообщение пора повторить: RTO с удвоением на каждый повтор
+    public long retransmitTimeout(MessageWithAdditionalInfo message, long defaultTimeout) {
+        PeerRtt peer = peers.get(new InetSocketAddress(message.getAddress(), message.getPort()));
+        long rto = peer == null || peer.getSamples() == 0 ? defaultTimeout : peer.rto();
+        int shift = Math.min(MAX_BACKOFF_SHIFT, Math.max(0, message.getSentCount() - 1));
+        rto = Math.max(Constants.RTO_MIN_MS, rto) << shift;
+        return Math.min(Constants.RTO_MAX_MS, rto);
+    }
+
+    public PeerRtt getPeerRtt(InetAddress address, int port) {
+        return peers.get(new InetSocketAddress(address, port));
+    }
+
+    public Map<InetSocketAddress, PeerRtt> getPeerRtts() {
+        return Collections.unmodifiableMap(new HashMap<>(peers));
+    }
+}
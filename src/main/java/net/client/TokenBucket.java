@@ -0,0 +1,45 @@
+package net.client;
+
+// Ограничение полосы до узла: rate байт в секунду, не больше capacity байт подряд
+public class TokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double rate, double capacity) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+    }
+
+    // Сообщение больше capacity пропускается при полном ведре, иначе оно не ушло бы никогда
+    public synchronized boolean tryConsume(int bytes) {
+        refill();
+        if (tokens < Math.min(bytes, capacity)) {
+            return false;
+        }
+        tokens -= bytes;
+        return true;
+    }
+
+    // Для неограничиваемых сообщений: уходят всегда, но полосу занимают
+    public synchronized void consume(int bytes) {
+        refill();
+        tokens -= bytes;
+    }
+
+    // Через сколько миллисекунд tryConsume(bytes) пройдёт
+    public synchronized long millisUntil(int bytes) {
+        refill();
+        double missing = Math.min(bytes, capacity) - tokens;
+        return missing <= 0 ? 0L : (long) Math.ceil(missing * 1000 / rate);
+    }
+}
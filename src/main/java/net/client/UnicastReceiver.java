@@ -2,25 +2,24 @@ package net.client;
 
 import main.java.net.protocol.SnakesProto;
 import mvc.model.GameModel;
-import mvc.model.Player;
+import net.protocol.DatagramBatch;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class UnicastReceiver implements Runnable {
     private final GameModel model;
     private final MessageHandler messageHandler;
-    private final Map<Integer, Long> lastMessageReceive;
+    private final PeerLivenessTracker livenessTracker;
 
     public UnicastReceiver(GameModel model) {
         this.model = model;
         messageHandler = new MessageHandler(model);
-        lastMessageReceive = new ConcurrentHashMap<>();
+        livenessTracker = new PeerLivenessTracker(model);
     }
 
     @Override
@@ -29,27 +28,29 @@ public class UnicastReceiver implements Runnable {
             DatagramPacket packet = new DatagramPacket(new byte[10000], 10000);
             try {
                 model.getUnicastSocket().receive(packet);
-                SnakesProto.GameMessage message = main.java.net.protocol.SnakesProto.GameMessage.parseFrom(
-                        Arrays.copyOf(packet.getData(), packet.getLength()));
-                //System.out.println(message.getMsgSeq() + " " + message.getTypeCase());
-                messageHandler.handleMessage(message, packet.getAddress(), packet.getPort());
-                lastMessageReceive.put(model.findPlayerIdByIpAndPort(packet.getAddress(), packet.getPort()),
-                        System.currentTimeMillis());
+                if (DatagramBatch.isBatch(packet.getData(), packet.getLength())) {
+                    for (ByteBuffer data : DatagramBatch.unpack(packet.getData(), packet.getLength())) {
+                        messageHandler.handleMessage(SnakesProto.GameMessage.parseFrom(data),
+                                packet.getAddress(), packet.getPort());
+                    }
+                }
+                else {
+                    SnakesProto.GameMessage message = main.java.net.protocol.SnakesProto.GameMessage.parseFrom(
+                            Arrays.copyOf(packet.getData(), packet.getLength()));
+                    //System.out.println(message.getMsgSeq() + " " + message.getTypeCase());
+                    messageHandler.handleMessage(message, packet.getAddress(), packet.getPort());
+                }
+                livenessTracker.touch(model.findPlayerIdByIpAndPort(packet.getAddress(), packet.getPort()));
             }
             catch (SocketTimeoutException | SocketException ignored) {}
             catch (IOException ex) {
                 ex.printStackTrace();
             }
-
-            for (Player player : model.getPlayerMap().values()) {
-                if (player.getId() == model.getMyId()) continue;
-                if (!lastMessageReceive.containsKey(player.getId())) {
-                    lastMessageReceive.put(player.getId(), System.currentTimeMillis());
-                }
-                if (System.currentTimeMillis() - lastMessageReceive.get(player.getId()) > model.getNodeTimeout()) {
-                    model.removePlayer(player.getId());
-                }
-            }
         }
+        livenessTracker.stop();
+    }
+
+    public PeerLivenessTracker getLivenessTracker() {
+        return livenessTracker;
     }
 }
@@ -3,95 +3,411 @@ package net.client;
 import main.java.net.protocol.SnakesProto;
 import mvc.model.GameModel;
 import mvc.model.Player;
+import net.protocol.Constants;
+import net.protocol.DatagramBatch;
+import net.protocol.ProtocolExtensions;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class UnicastSender implements Runnable {
+    // сообщения этих типов полностью заменяют предыдущие того же типа, ждать подтверждения старых незачем
+    private final static Set<SnakesProto.GameMessage.TypeCase> LATEST_WINS =
+            EnumSet.of(SnakesProto.GameMessage.TypeCase.STATE);
+
     private final Map<Long, MessageWithAdditionalInfo> messageQueue;
+    private final Map<Map.Entry<InetSocketAddress, SnakesProto.GameMessage.TypeCase>, Long> latestMessages;
+    private final Queue<MessageWithAdditionalInfo> ackQueue;
+    private final PeerFeatures peerFeatures;
+    private final AckCoalescer ackCoalescer;
+    private final RttEstimator rttEstimator;
+    private final Map<InetSocketAddress, TokenBucket> buckets;
     private final Map<Integer, Long> lastMessageSent;
     private final GameModel model;
+    private final AtomicLong sentPackets;
+    private final AtomicLong sentMessages;
+    private final AtomicLong retransmittedPackets;
+    private final AtomicLong throttledMessages;
+    // очереди одного прохода по приоритетам: заводятся один раз, после прохода только очищаются
+    private final List<Map<InetSocketAddress, List<MessageWithAdditionalInfo>>> duePackets;
+    private final List<MessageWithAdditionalInfo> announcements;
+    private volatile Thread senderThread;
+    // когда полосы хватит на первое задержанное сообщение, Long.MAX_VALUE - задержанных нет
+    private long throttledUntil;
 
     public UnicastSender(GameModel model) {
         this.model = model;
         messageQueue = new ConcurrentHashMap<>();
+        latestMessages = new ConcurrentHashMap<>();
+        ackQueue = new ConcurrentLinkedQueue<>();
+        peerFeatures = new PeerFeatures();
+        ackCoalescer = new AckCoalescer(model, peerFeatures, this::wakeUp);
+        rttEstimator = new RttEstimator();
+        buckets = new ConcurrentHashMap<>();
         lastMessageSent = new ConcurrentHashMap<>();
+        sentPackets = new AtomicLong();
+        sentMessages = new AtomicLong();
+        retransmittedPackets = new AtomicLong();
+        throttledMessages = new AtomicLong();
+        duePackets = new ArrayList<>();
+        for (int i = 0; i < MessagePriority.values().length; ++i) {
+            duePackets.add(new LinkedHashMap<>());
+        }
+        announcements = new ArrayList<>();
+    }
+
+    // Поток отправки спит до ближайшего срока, новое сообщение будит его сразу
+    private void wakeUp() {
+        Thread thread = senderThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
     }
 
     public void sendMessage(SnakesProto.GameMessage message, InetAddress address, int port) {
+        // у подтверждения msg_seq чужой, в общей очереди он перетёр бы наши сообщения
+        if (message.hasAck()) {
+            ackQueue.add(new MessageWithAdditionalInfo(message, address, port));
+            wakeUp();
+            return;
+        }
+        if (LATEST_WINS.contains(message.getTypeCase())) {
+            Long replaced = latestMessages.put(latestKey(message, address, port), message.getMsgSeq());
+            if (replaced != null) {
+                messageQueue.remove(replaced);
+            }
+        }
         messageQueue.put(message.getMsgSeq(), new MessageWithAdditionalInfo(message, address, port));
+        wakeUp();
         //System.out.println(messageQueue.size());
     }
 
+    private static Map.Entry<InetSocketAddress, SnakesProto.GameMessage.TypeCase> latestKey(
+            SnakesProto.GameMessage message, InetAddress address, int port) {
+        return new AbstractMap.SimpleImmutableEntry<>(new InetSocketAddress(address, port), message.getTypeCase());
+    }
+
     public void removeMessageFromQueue(long seq) {
-        messageQueue.remove(seq);
+        acknowledge(seq, System.currentTimeMillis());
+    }
+
+    public void removeAckedRanges(List<Long> ranges) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i + 1 < ranges.size(); i += 2) {
+            for (long seq = ranges.get(i); seq <= ranges.get(i + 1); ++seq) {
+                acknowledge(seq, now);
+            }
+        }
+    }
+
+    private void acknowledge(long seq, long ackTime) {
+        MessageWithAdditionalInfo message = messageQueue.remove(seq);
+        if (message != null) {
+            rttEstimator.onAcked(message, ackTime);
+            if (LATEST_WINS.contains(message.getMessage().getTypeCase())) {
+                latestMessages.remove(latestKey(message.getMessage(), message.getAddress(), message.getPort()), seq);
+            }
+        }
+    }
+
+    public PeerFeatures getPeerFeatures() {
+        return peerFeatures;
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    public AckCoalescer getAckCoalescer() {
+        return ackCoalescer;
     }
 
     public void clearMessageQueue() {
         messageQueue.clear();
+        latestMessages.clear();
     }
 
     @Override
     public void run() {
+        senderThread = Thread.currentThread();
         while (!Thread.currentThread().isInterrupted()) {
-            for (Map.Entry<Long, MessageWithAdditionalInfo> message : messageQueue.entrySet()) {
+            long now = System.currentTimeMillis();
+            long pingDelay = model.getPingDelay();
+            // не позже чем через pingDelay: за это время могли появиться новые игроки
+            long wakeUpTime = now + pingDelay;
 
-                if (System.currentTimeMillis() - message.getValue().getLastSentTime() < model.getPingDelay()) {
+            MessageWithAdditionalInfo ack;
+            while ((ack = ackQueue.poll()) != null) {
+                addDuePacket(ack);
+            }
+            for (MessageWithAdditionalInfo delayedAck : ackCoalescer.flushDue()) {
+                addDuePacket(delayedAck);
+            }
+            wakeUpTime = Math.min(wakeUpTime, ackCoalescer.nextFlushTime());
+
+            boolean sentQueued = false;
+            for (MessageWithAdditionalInfo message : messageQueue.values()) {
+                if (message.getSentCount() > 0) {
+                    long retransmitTime = message.getLastSentTime() + rttEstimator.retransmitTimeout(message, pingDelay);
+                    if (now < retransmitTime) {
+                        wakeUpTime = Math.min(wakeUpTime, retransmitTime);
+                        continue;
+                    }
+                }
+
+                if (message.getMessage().hasAnnouncement()) {
+                    announcements.add(message);
                     continue;
                 }
+                addDuePacket(message);
+                sentQueued = true;
+            }
 
-                DatagramPacket packet = new DatagramPacket(message.getValue().getMessage().toByteArray(),
-                        message.getValue().getMessage().toByteArray().length,
-                        message.getValue().getAddress(), message.getValue().getPort());
-                //System.out.println(message.getValue().getMessage() + "\n" + message.getValue().getAddress());
-                try {
-                    model.getUnicastSocket().send(packet);
-                    //lastMessageSent.put()
-                    //System.out.println("Sent " + message.getValue().getMessage().getTypeCase());
-                    long sentTime = System.currentTimeMillis();
-                    lastMessageSent.put(model.findPlayerIdByIpAndPort(
-                            message.getValue().getAddress(), message.getValue().getPort()), sentTime);
-                    message.getValue().setLastSentTime(sentTime);
-                    if (message.getValue().getMessage().hasAnnouncement() || message.getValue().getMessage().hasAck()) {
-                        messageQueue.remove(message.getKey());
+            // сначала все управляющие сообщения всем узлам, потом повороты и подтверждения и т.д.
+            throttledUntil = Long.MAX_VALUE;
+            for (MessagePriority priority : MessagePriority.values()) {
+                for (Map.Entry<InetSocketAddress, List<MessageWithAdditionalInfo>> peer
+                        : duePackets.get(priority.ordinal()).entrySet()) {
+                    if (peer.getValue().isEmpty()) {
+                        continue;
+                    }
+                    List<MessageWithAdditionalInfo> messages = priority.isShaped() ?
+                            takeAllowed(peer.getKey(), peer.getValue()) : consumeAll(peer.getKey(), peer.getValue());
+                    if (messages.size() > 1 && Constants.BATCHING_ENABLED
+                            && peerFeatures.supports(peer.getKey(), ProtocolExtensions.FEATURE_BATCH)) {
+                        sendBatches(peer.getKey(), messages);
+                    }
+                    else {
+                        for (MessageWithAdditionalInfo message : messages) {
+                            sendPacket(message);
+                        }
                     }
                 }
-                catch (SocketException ignored) {}
-                catch (IOException ex) {
-                    ex.printStackTrace();
-                }
             }
+            clearDuePackets();
+
+            // объявления идут на multicast-адрес, полосой отдельного узла не ограничиваются
+            for (MessageWithAdditionalInfo announcement : announcements) {
+                sendPacket(announcement);
+                messageQueue.remove(announcement.getMessage().getMsgSeq(), announcement);
+            }
+            announcements.clear();
 
             for (Player player : model.getPlayerMap().values()) {
                 if (player.getId() == model.getMyId()) continue;
-                if (!lastMessageSent.containsKey(player.getId()) ||
-                        System.currentTimeMillis() - lastMessageSent.get(player.getId()) > model.getPingDelay()) {
+                Long lastSent = lastMessageSent.get(player.getId());
+                if (lastSent == null || System.currentTimeMillis() - lastSent > pingDelay) {
+                    // пинг встаёт в очередь и будит поток, он уйдёт следующим проходом
                     sendPingMessage(player);
                 }
+                else {
+                    wakeUpTime = Math.min(wakeUpTime, lastSent + pingDelay + 1);
+                }
+            }
+
+            if (sentQueued) {
+                // раньше минимального RTO отправленное повторять не придётся
+                wakeUpTime = Math.min(wakeUpTime, now + Constants.RTO_MIN_MS);
+            }
+            wakeUpTime = Math.min(wakeUpTime, throttledUntil);
+            long sleep = wakeUpTime - System.currentTimeMillis();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleep));
+            }
+        }
+    }
+
+    private void addDuePacket(MessageWithAdditionalInfo message) {
+        Map<InetSocketAddress, List<MessageWithAdditionalInfo>> peers =
+                duePackets.get(MessagePriority.of(message.getMessage()).ordinal());
+        List<MessageWithAdditionalInfo> messages = peers.get(message.getPeer());
+        if (messages == null) {
+            messages = new ArrayList<>();
+            peers.put(message.getPeer(), messages);
+        }
+        messages.add(message);
+    }
+
+    // Списки остаются на следующий проход; узлы, которым в этот раз нечего было слать, выбрасываются
+    private void clearDuePackets() {
+        for (Map<InetSocketAddress, List<MessageWithAdditionalInfo>> peers : duePackets) {
+            Iterator<List<MessageWithAdditionalInfo>> iterator = peers.values().iterator();
+            while (iterator.hasNext()) {
+                List<MessageWithAdditionalInfo> messages = iterator.next();
+                if (messages.isEmpty()) {
+                    iterator.remove();
+                }
+                else {
+                    messages.clear();
+                }
+            }
+        }
+    }
+
+    private TokenBucket getBucket(InetSocketAddress peer) {
+        return buckets.computeIfAbsent(peer, p -> new TokenBucket(Constants.PEER_RATE_LIMIT, Constants.PEER_BURST));
+    }
+
+    private List<MessageWithAdditionalInfo> consumeAll(InetSocketAddress peer, List<MessageWithAdditionalInfo> messages) {
+        if (Constants.PEER_RATE_LIMIT > 0) {
+            TokenBucket bucket = getBucket(peer);
+            for (MessageWithAdditionalInfo message : messages) {
+                bucket.consume(message.getBytes().length);
+            }
+        }
+        return messages;
+    }
+
+    // Сообщения, на которые хватает полосы; остальные остаются в очереди до следующего прохода
+    private List<MessageWithAdditionalInfo> takeAllowed(InetSocketAddress peer, List<MessageWithAdditionalInfo> messages) {
+        if (Constants.PEER_RATE_LIMIT <= 0) {
+            return messages;
+        }
+        TokenBucket bucket = getBucket(peer);
+        int allowed = 0;
+        for (MessageWithAdditionalInfo message : messages) {
+            if (!bucket.tryConsume(message.getBytes().length)) {
+                if (!message.isThrottled()) {
+                    message.setThrottled(true);
+                    throttledMessages.incrementAndGet();
+                }
+                long retryTime = System.currentTimeMillis() + Math.max(1L,
+                        bucket.millisUntil(message.getBytes().length));
+                throttledUntil = Math.min(throttledUntil, retryTime);
+                break;
+            }
+            ++allowed;
+        }
+        return allowed == messages.size() ? messages : messages.subList(0, allowed);
+    }
+
+    private byte[] serialize(MessageWithAdditionalInfo message) {
+        // подтверждения, накопленные для этого узла, уходят вместе с сообщением
+        byte[] data = message.getBytes();
+        long[] ranges = ackCoalescer.takeRanges(message.getPeer());
+        if (ranges == null) {
+            return data;
+        }
+        byte[] sack = ProtocolExtensions.sackBytes(ranges);
+        byte[] result = Arrays.copyOf(data, data.length + sack.length);
+        System.arraycopy(sack, 0, result, data.length, sack.length);
+        return result;
+    }
+
+    private boolean sendPacket(MessageWithAdditionalInfo message) {
+        return sendDatagram(serialize(message), message.getAddress(), message.getPort(),
+                Collections.singletonList(message));
+    }
+
+    // Все сообщения узлу за один проход - в как можно меньшее число датаграмм не больше BATCH_MTU
+    private void sendBatches(InetSocketAddress peer, List<MessageWithAdditionalInfo> messages) {
+        List<byte[]> batch = new ArrayList<>();
+        List<MessageWithAdditionalInfo> batchMessages = new ArrayList<>();
+        int batchSize = DatagramBatch.HEADER_SIZE;
+        for (MessageWithAdditionalInfo message : messages) {
+            byte[] data = serialize(message);
+            int size = DatagramBatch.LENGTH_SIZE + data.length;
+            if (DatagramBatch.HEADER_SIZE + size > Constants.BATCH_MTU || data.length > DatagramBatch.MAX_MESSAGE_SIZE) {
+                sendDatagram(data, peer.getAddress(), peer.getPort(), Collections.singletonList(message));
+                continue;
+            }
+            if (batchSize + size > Constants.BATCH_MTU) {
+                flushBatch(peer, batch, batchMessages);
+                batchSize = DatagramBatch.HEADER_SIZE;
+            }
+            batch.add(data);
+            batchMessages.add(message);
+            batchSize += size;
+        }
+        flushBatch(peer, batch, batchMessages);
+    }
+
+    private void flushBatch(InetSocketAddress peer, List<byte[]> batch, List<MessageWithAdditionalInfo> messages) {
+        if (batch.size() == 1) {
+            sendDatagram(batch.get(0), peer.getAddress(), peer.getPort(), messages);
+        }
+        else if (batch.size() > 1) {
+            sendDatagram(DatagramBatch.pack(batch), peer.getAddress(), peer.getPort(), messages);
+        }
+        batch.clear();
+        messages.clear();
+    }
+
+    private boolean sendDatagram(byte[] data, InetAddress address, int port, List<MessageWithAdditionalInfo> messages) {
+        DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
+        try {
+            model.getUnicastSocket().send(packet);
+            sentPackets.incrementAndGet();
+            sentMessages.addAndGet(messages.size());
+            long sentTime = System.currentTimeMillis();
+            lastMessageSent.put(model.findPlayerIdByIpAndPort(address, port), sentTime);
+            for (MessageWithAdditionalInfo message : messages) {
+                if (message.getSentCount() > 0) {
+                    retransmittedPackets.incrementAndGet();
+                }
+                message.setLastSentTime(sentTime);
+                message.incrementSentCount();
             }
+            return true;
+        }
+        catch (SocketException ignored) {}
+        catch (IOException ex) {
+            ex.printStackTrace();
         }
+        return false;
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getSentPackets() {
+        return sentPackets.get();
+    }
+
+    public long getRetransmittedPackets() {
+        return retransmittedPackets.get();
+    }
+
+    public long getThrottledMessages() {
+        return throttledMessages.get();
+    }
+
+    public int getQueueSize() {
+        return messageQueue.size();
     }
 
     public void readdressMessages(InetAddress fromAddress, int fromPort, InetAddress toAddress, int toPort) {
         for (Map.Entry<Long, MessageWithAdditionalInfo> message : messageQueue.entrySet()) {
             if (message.getValue().getAddress().equals(fromAddress) && message.getValue().getPort() == fromPort &&
             !message.getValue().getMessage().hasPing()) {
-                messageQueue.put(message.getKey(),
-                        new MessageWithAdditionalInfo(message.getValue().getMessage(), toAddress, toPort));
+                SnakesProto.GameMessage queued = message.getValue().getMessage();
+                if (LATEST_WINS.contains(queued.getTypeCase())) {
+                    latestMessages.remove(latestKey(queued, fromAddress, fromPort), message.getKey());
+                    messageQueue.remove(message.getKey());
+                    sendMessage(queued, toAddress, toPort);
+                    continue;
+                }
+                messageQueue.put(message.getKey(), new MessageWithAdditionalInfo(queued, toAddress, toPort));
             }
         }
+        wakeUp();
     }
 
     private void sendPingMessage(Player player) {
         SnakesProto.GameMessage.Builder builder = SnakesProto.GameMessage.newBuilder();
         SnakesProto.GameMessage.PingMsg msg = SnakesProto.GameMessage.PingMsg.getDefaultInstance();
         builder.setPing(msg);
-        builder.setMsgSeq(model.getLastMsgSeq());
-        model.iterateLastMsqSeq();
+        builder.setMsgSeq(model.nextMsgSeq());
         try {
             sendMessage(builder.build(), InetAddress.getByName(player.getIpAddress()), player.getPort());
         }
@@ -6,4 +6,63 @@ public class Constants {
     public final static int ANNOUNCEMENT_PING_PERIOD = 1000;
     public final static int MULTICAST_SOCKET_TIMEOUT = 1000;
     public final static int UNICAST_SOCKET_TIMEOUT = 1000;
+    // выборочные и отложенные подтверждения, используются только с узлами, заявившими поддержку
+    public final static boolean SACK_ENABLED = Boolean.parseBoolean(System.getProperty("snake.sack", "true"));
+    public final static int ACK_DELAY_MS = Integer.getInteger("snake.ackDelay", 5);
+    // упаковка нескольких сообщений одному узлу в одну датаграмму, по умолчанию выключена
+    public final static boolean BATCHING_ENABLED = Boolean.parseBoolean(System.getProperty("snake.batching", "false"));
+    public final static int BATCH_MTU = Integer.getInteger("snake.batchMtu", 1400);
+    // границы таймаута повторной отправки, сам таймаут подстраивается под RTT до узла
+    public final static int RTO_MIN_MS = Integer.getInteger("snake.rtoMin", 20);
+    public final static int RTO_MAX_MS = Integer.getInteger("snake.rtoMax", 2000);
+    // полоса до одного узла для состояний, пингов и объявлений, байт/с (0 - без ограничения)
+    public final static int PEER_RATE_LIMIT = Integer.getInteger("snake.peerRate", 1024 * 1024);
+    public final static int PEER_BURST = Integer.getInteger("snake.peerBurst", 64 * 1024);
+    // запас к node_timeout_ms на дрожание задержки, прежде чем считать узел отвалившимся
+    public final static int LIVENESS_GRACE_MS = Integer.getInteger("snake.livenessGrace", 0);
+    // разреженное хранение поля участками; поле больше DENSE_FIELD_MAX_CELLS клеток хранится так всегда
+    public final static boolean CHUNKED_FIELD = Boolean.parseBoolean(System.getProperty("snake.chunkedField", "false"));
+    public final static int DENSE_FIELD_MAX_CELLS = 100 * 100;
+    // наибольшая сторона поля при создании игры
+    public final static int MAX_FIELD_SIDE = CHUNKED_FIELD ? 4096 : 100;
+    // режим окрестностей: мастер шлёт игроку только змей и еду в радиусе AOI_RADIUS клеток от его головы (0 - выключен);
+    // заместитель всегда получает полное состояние, зритель - если запустил игру с snake.fullState=true
+    public final static int AOI_RADIUS = Integer.getInteger("snake.aoiRadius", 0);
+    public final static int AOI_BUCKET_SIZE = Integer.getInteger("snake.aoiBucket", 16);
+    public final static boolean FULL_STATE_WANTED = Boolean.parseBoolean(System.getProperty("snake.fullState", "false"));
+    // lockstep: узлы, поддерживающие режим, считают ходы сами, мастер шлёт им только повороты, новую еду
+    // и раз в LOCKSTEP_CHECKSUM_INTERVAL ходов контрольную сумму; полное состояние - при смене состава игроков и по запросу
+    public final static boolean LOCKSTEP = Boolean.parseBoolean(System.getProperty("snake.lockstep", "false"));
+    public final static int LOCKSTEP_CHECKSUM_INTERVAL = Integer.getInteger("snake.lockstepChecksum", 10);
+    // сколько кадров узел держит в ожидании пропущенного, прежде чем попросить полное состояние
+    public final static int LOCKSTEP_MAX_PENDING = Integer.getInteger("snake.lockstepMaxPending", 64);
+    // предсказание хода своей змеи до подтверждения поворота мастером (нужна поддержка у мастера)
+    public final static boolean CLIENT_PREDICTION = Boolean.parseBoolean(System.getProperty("snake.prediction", "true"));
+    // хеш поля в полных состояниях, узел сверяет с ним поле, восстановленное из состояния
+    public final static boolean FIELD_HASH = Boolean.parseBoolean(System.getProperty("snake.fieldHash", "true"));
+    // зерно случайных чисел новой игры (место змей, еда); без него выбирается случайно и печатается при старте
+    public final static Long GAME_SEED = Long.getLong("snake.seed");
+    // параллельный сдвиг змей и отрисовка тел по полосам поля, включается только при числе змей от PARALLEL_TICK_MIN_SNAKES
+    public final static boolean PARALLEL_TICK = Boolean.parseBoolean(System.getProperty("snake.parallelTick", "false"));
+    public final static int PARALLEL_TICK_MIN_SNAKES = Integer.getInteger("snake.parallelTickMinSnakes", 64);
+    public final static int TICK_THREADS = Integer.getInteger("snake.tickThreads",
+            Runtime.getRuntime().availableProcessors());
+    // отрисовка поля: canvas, pixels (клетка - пиксель PixelBuffer) или auto - pixels начиная с PIXEL_RENDER_MIN_CELLS клеток
+    public final static String RENDER_MODE = System.getProperty("snake.render", "auto");
+    public final static int PIXEL_RENDER_MIN_CELLS = Integer.getInteger("snake.pixelRenderMinCells", 100 * 100);
+    // окно просмотра вокруг своей змеи для полей, не влезающих в окно: on, off или auto -
+    // auto включает его, когда клетка при показе всего поля получается меньше VIEWPORT_AUTO_CELL_SIZE пикселей
+    public final static String VIEWPORT_MODE = System.getProperty("snake.viewport", "auto");
+    public final static int VIEWPORT_AUTO_CELL_SIZE = Integer.getInteger("snake.viewportAutoCell", 2);
+    public final static int VIEWPORT_CELL_SIZE = Integer.getInteger("snake.viewportCell", 8);
+    public final static int MINIMAP_PERIOD_MS = Integer.getInteger("snake.minimapPeriod", 200);
+    // сколько лучших игроков показывать в рейтинге
+    public final static int LEADERBOARD_SIZE = Integer.getInteger("snake.leaderboardSize", 50);
+
+    // запись игр мастером, включается -Dsnake.record.dir=<каталог>
+    public final static String RECORD_DIRECTORY = System.getProperty("snake.record.dir");
+    public final static int RECORD_SEGMENT_SIZE = Integer.getInteger("snake.record.segmentSize", 64 * 1024 * 1024);
+    public final static String RECORD_FSYNC_POLICY = System.getProperty("snake.record.fsync", "PERIODIC");
+    public final static int RECORD_FSYNC_INTERVAL = Integer.getInteger("snake.record.fsyncInterval", 1000);
+    public final static int RECORD_KEYFRAME_INTERVAL = Integer.getInteger("snake.record.keyframeInterval", 100);
 }
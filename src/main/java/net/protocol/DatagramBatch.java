@@ -0,0 +1,55 @@
+package net.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Несколько GameMessage в одной датаграмме: [MAGIC][VERSION], затем [uint16 длина][сообщение]...
+ * Первый байт сериализованного GameMessage - тег поля, 0x5A (поле 11 с типом length-delimited)
+ * сгенерированный код никогда не выдаёт, так что пачку нельзя спутать с одиночным сообщением.
+ */
+public final class DatagramBatch {
+    public final static byte MAGIC = 0x5A;
+    public final static byte VERSION = 1;
+    public final static int HEADER_SIZE = 2;
+    public final static int LENGTH_SIZE = 2;
+    public final static int MAX_MESSAGE_SIZE = 0xFFFF;
+
+    private DatagramBatch() {}
+
+    public static boolean isBatch(byte[] data, int length) {
+        return length >= HEADER_SIZE && data[0] == MAGIC && data[1] == VERSION;
+    }
+
+    public static byte[] pack(List<byte[]> messages) {
+        int size = HEADER_SIZE;
+        for (byte[] message : messages) {
+            size += LENGTH_SIZE + message.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        for (byte[] message : messages) {
+            buffer.putShort((short) message.length);
+            buffer.put(message);
+        }
+        return buffer.array();
+    }
+
+    public static List<ByteBuffer> unpack(byte[] data, int length) {
+        List<ByteBuffer> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(data, HEADER_SIZE, length - HEADER_SIZE);
+        while (buffer.remaining() >= LENGTH_SIZE) {
+            int messageLength = Short.toUnsignedInt(buffer.getShort());
+            if (messageLength > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer message = buffer.slice();
+            message.limit(messageLength);
+            messages.add(message);
+            buffer.position(buffer.position() + messageLength);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,108 @@
+package net.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Кадр режима lockstep - всё, что нужно узлу, чтобы самому повторить ход мастера:
+ * [int номер хода][byte флаги][long контрольная сумма, если FLAG_CHECKSUM]
+ * [int число поворотов]([int id игрока][byte направление])...
+ * [int число новых клеток еды]([uint16 x][uint16 y])...
+ * Повороты - в том порядке, в каком мастер их применил, еда - в порядке добавления в список:
+ * и от погибших змей, и новая случайная, так что узлу генератор случайных чисел не нужен.
+ */
+public final class LockstepFrame {
+    private final static byte FLAG_CHECKSUM = 1;
+
+    private final int tick;
+    private final int[] steers;
+    private final List<int[]> food;
+    private final boolean hasChecksum;
+    private final long checksum;
+
+    // steers - пары (id игрока, номер направления в протоколе)
+    public LockstepFrame(int tick, int[] steers, List<int[]> food, boolean hasChecksum, long checksum) {
+        this.tick = tick;
+        this.steers = steers;
+        this.food = food;
+        this.hasChecksum = hasChecksum;
+        this.checksum = checksum;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getSteerCount() {
+        return steers.length / 2;
+    }
+
+    public int getSteerPlayerId(int index) {
+        return steers[2 * index];
+    }
+
+    public int getSteerDirection(int index) {
+        return steers[2 * index + 1];
+    }
+
+    public List<int[]> getFood() {
+        return food;
+    }
+
+    public boolean hasChecksum() {
+        return hasChecksum;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public byte[] toBytes() {
+        int size = Integer.BYTES + 1 + (hasChecksum ? Long.BYTES : 0)
+                + Integer.BYTES + getSteerCount() * (Integer.BYTES + 1)
+                + Integer.BYTES + food.size() * 2 * Short.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(tick);
+        buffer.put(hasChecksum ? FLAG_CHECKSUM : 0);
+        if (hasChecksum) {
+            buffer.putLong(checksum);
+        }
+        buffer.putInt(getSteerCount());
+        for (int i = 0; i < getSteerCount(); ++i) {
+            buffer.putInt(getSteerPlayerId(i));
+            buffer.put((byte) getSteerDirection(i));
+        }
+        buffer.putInt(food.size());
+        for (int[] cell : food) {
+            buffer.putShort((short) cell[0]);
+            buffer.putShort((short) cell[1]);
+        }
+        return buffer.array();
+    }
+
+    // BufferUnderflowException - кадр обрезан
+    public static LockstepFrame parse(ByteBuffer buffer) {
+        int tick = buffer.getInt();
+        boolean hasChecksum = (buffer.get() & FLAG_CHECKSUM) != 0;
+        long checksum = hasChecksum ? buffer.getLong() : 0L;
+        int steerCount = buffer.getInt();
+        if (steerCount < 0 || steerCount > buffer.remaining() / (Integer.BYTES + 1)) {
+            throw new IllegalArgumentException("Неверное число поворотов в кадре: " + steerCount);
+        }
+        int[] steers = new int[2 * steerCount];
+        for (int i = 0; i < steerCount; ++i) {
+            steers[2 * i] = buffer.getInt();
+            steers[2 * i + 1] = buffer.get();
+        }
+        int foodCount = buffer.getInt();
+        if (foodCount < 0 || foodCount > buffer.remaining() / (2 * Short.BYTES)) {
+            throw new IllegalArgumentException("Неверное число клеток еды в кадре: " + foodCount);
+        }
+        List<int[]> food = new ArrayList<>(foodCount);
+        for (int i = 0; i < foodCount; ++i) {
+            food.add(new int[] {Short.toUnsignedInt(buffer.getShort()), Short.toUnsignedInt(buffer.getShort())});
+        }
+        return new LockstepFrame(tick, steers, food, hasChecksum, checksum);
+    }
+}
@@ -0,0 +1,203 @@
+package net.protocol;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import main.java.net.protocol.SnakesProto;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/*
+ * Расширения протокола поверх snakes.proto. Сам .proto общий для всех реализаций и не меняется,
+ * поэтому дополнительные данные передаются в полях с номерами, которых в нём нет:
+ * protobuf сохраняет такие поля как неизвестные, а чужие реализации их просто игнорируют.
+ */
+public final class ProtocolExtensions {
+    // GameMessage: битовая маска поддерживаемых отправителем расширений
+    public final static int FEATURES_FIELD = 100;
+    // GameMessage: выборочные подтверждения, пары (первый, последний) msg_seq включительно
+    public final static int SACK_FIELD = 101;
+    // GameState: состояние урезано до окрестности игрока - центр x, центр y, радиус
+    public final static int AREA_FIELD = 102;
+    // GameState: грубая сводка всего поля - число областей по x и по y, затем число змей в каждой области построчно
+    public final static int AREA_SUMMARY_FIELD = 103;
+    // GameMessage с PingMsg: кадр lockstep (LockstepFrame) от мастера
+    public final static int LOCKSTEP_FIELD = 104;
+    // GameMessage с PingMsg: узел разошёлся с мастером и просит полное состояние, значение - его последний ход
+    public final static int RESYNC_FIELD = 105;
+    // GameMessage от мастера: msg_seq последнего поворота получателя, применённого к этому ходу
+    public final static int STEER_ACK_FIELD = 106;
+    // GameState: хеш поля мастера после хода (Field.getHash), только в полных состояниях
+    public final static int FIELD_HASH_FIELD = 107;
+    // GameConfig: зерно генератора случайных чисел игры; попадает в запись вместе с конфигурацией
+    public final static int GAME_SEED_FIELD = 108;
+
+    public final static long FEATURE_SACK = 1L;
+    public final static long FEATURE_BATCH = 2L;
+    // зритель просит полное состояние даже в режиме окрестностей
+    public final static long FEATURE_FULL_STATE = 4L;
+    // узел сам считает ходы по кадрам lockstep
+    public final static long FEATURE_LOCKSTEP = 8L;
+    // мастер сообщает, какой поворот узла уже применён; узел предсказывает ход своей змеи
+    public final static long FEATURE_STEER_ACK = 16L;
+
+    private ProtocolExtensions() {}
+
+    public static long localFeatures() {
+        long features = 0L;
+        if (Constants.SACK_ENABLED) {
+            features |= FEATURE_SACK;
+        }
+        if (Constants.BATCHING_ENABLED) {
+            features |= FEATURE_BATCH;
+        }
+        if (Constants.FULL_STATE_WANTED) {
+            features |= FEATURE_FULL_STATE;
+        }
+        if (Constants.LOCKSTEP) {
+            features |= FEATURE_LOCKSTEP;
+        }
+        if (Constants.CLIENT_PREDICTION) {
+            features |= FEATURE_STEER_ACK;
+        }
+        return features;
+    }
+
+    public static long getFeatures(SnakesProto.GameMessage message) {
+        List<Long> values = message.getUnknownFields().getField(FEATURES_FIELD).getVarintList();
+        return values.isEmpty() ? 0L : values.get(values.size() - 1);
+    }
+
+    public static List<Long> getSackRanges(SnakesProto.GameMessage message) {
+        return message.getUnknownFields().getField(SACK_FIELD).getVarintList();
+    }
+
+    public static boolean isAreaFiltered(SnakesProto.GameState state) {
+        return !state.getUnknownFields().getField(AREA_FIELD).getVarintList().isEmpty();
+    }
+
+    public static List<Long> getAreaSummary(SnakesProto.GameState state) {
+        return state.getUnknownFields().getField(AREA_SUMMARY_FIELD).getVarintList();
+    }
+
+    public static UnknownFieldSet gameSeedFields(long seed) {
+        return UnknownFieldSet.newBuilder()
+                .addField(GAME_SEED_FIELD, UnknownFieldSet.Field.newBuilder().addFixed64(seed).build())
+                .build();
+    }
+
+    // В конфигурации от реализации без зерна воспроизводить нечего, берётся случайное
+    public static long getGameSeed(SnakesProto.GameConfig config) {
+        List<Long> values = config.getUnknownFields().getField(GAME_SEED_FIELD).getFixed64List();
+        return values.isEmpty() ? new SplittableRandom().nextLong() : values.get(values.size() - 1);
+    }
+
+    public static UnknownFieldSet fieldHashFields(long hash) {
+        return UnknownFieldSet.newBuilder()
+                .addField(FIELD_HASH_FIELD, UnknownFieldSet.Field.newBuilder().addFixed64(hash).build())
+                .build();
+    }
+
+    // null - мастер хеш не прислал
+    public static Long getFieldHash(SnakesProto.GameState state) {
+        List<Long> values = state.getUnknownFields().getField(FIELD_HASH_FIELD).getFixed64List();
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    public static UnknownFieldSet areaFields(int centerX, int centerY, int radius, long[] summary) {
+        UnknownFieldSet.Field.Builder area = UnknownFieldSet.Field.newBuilder()
+                .addVarint(centerX).addVarint(centerY).addVarint(radius);
+        UnknownFieldSet.Field.Builder summaryField = UnknownFieldSet.Field.newBuilder();
+        for (long value : summary) {
+            summaryField.addVarint(value);
+        }
+        return UnknownFieldSet.newBuilder()
+                .addField(AREA_FIELD, area.build())
+                .addField(AREA_SUMMARY_FIELD, summaryField.build())
+                .build();
+    }
+
+    public static SnakesProto.GameMessage.Builder lockstepFrame(LockstepFrame frame) {
+        return SnakesProto.GameMessage.newBuilder()
+                .setPing(SnakesProto.GameMessage.PingMsg.getDefaultInstance())
+                .setUnknownFields(UnknownFieldSet.newBuilder()
+                        .addField(LOCKSTEP_FIELD, UnknownFieldSet.Field.newBuilder()
+                                .addLengthDelimited(ByteString.copyFrom(frame.toBytes())).build())
+                        .build());
+    }
+
+    public static boolean hasLockstepFrame(SnakesProto.GameMessage message) {
+        return message.hasPing() && !message.getUnknownFields().getField(LOCKSTEP_FIELD)
+                .getLengthDelimitedList().isEmpty();
+    }
+
+    // null - в сообщении нет кадра
+    public static LockstepFrame getLockstepFrame(SnakesProto.GameMessage message) {
+        if (!hasLockstepFrame(message)) {
+            return null;
+        }
+        List<ByteString> frames = message.getUnknownFields().getField(LOCKSTEP_FIELD).getLengthDelimitedList();
+        return LockstepFrame.parse(frames.get(frames.size() - 1).asReadOnlyByteBuffer());
+    }
+
+    public static SnakesProto.GameMessage.Builder resyncRequest(int lastTick) {
+        return SnakesProto.GameMessage.newBuilder()
+                .setPing(SnakesProto.GameMessage.PingMsg.getDefaultInstance())
+                .setUnknownFields(UnknownFieldSet.newBuilder()
+                        .addField(RESYNC_FIELD, UnknownFieldSet.Field.newBuilder().addVarint(lastTick).build())
+                        .build());
+    }
+
+    public static boolean isResyncRequest(SnakesProto.GameMessage message) {
+        return message.hasPing() && !message.getUnknownFields().getField(RESYNC_FIELD).getVarintList().isEmpty();
+    }
+
+    // seq < 0 - убрать поле: сборщик сообщения используется для нескольких получателей
+    public static void setSteerAck(SnakesProto.GameMessage.Builder builder, long seq) {
+        UnknownFieldSet.Builder fields = UnknownFieldSet.newBuilder(builder.getUnknownFields());
+        fields.clearField(STEER_ACK_FIELD);
+        if (seq >= 0) {
+            fields.addField(STEER_ACK_FIELD, UnknownFieldSet.Field.newBuilder().addVarint(seq).build());
+        }
+        builder.setUnknownFields(fields.build());
+    }
+
+    // -1 - поля нет
+    public static long getSteerAck(SnakesProto.GameMessage message) {
+        List<Long> values = message.getUnknownFields().getField(STEER_ACK_FIELD).getVarintList();
+        return values.isEmpty() ? -1L : values.get(values.size() - 1);
+    }
+
+    // Сообщение с нашей маской расширений и (если есть) выборочными подтверждениями
+    public static SnakesProto.GameMessage decorate(SnakesProto.GameMessage message, long[] sackRanges) {
+        long features = localFeatures();
+        if (features == 0L && sackRanges == null) {
+            return message;
+        }
+        UnknownFieldSet.Builder fields = UnknownFieldSet.newBuilder(message.getUnknownFields());
+        fields.clearField(FEATURES_FIELD);
+        if (features != 0L) {
+            fields.addField(FEATURES_FIELD, UnknownFieldSet.Field.newBuilder().addVarint(features).build());
+        }
+        if (sackRanges != null) {
+            fields.mergeField(SACK_FIELD, sackField(sackRanges));
+        }
+        return message.toBuilder().setUnknownFields(fields.build()).build();
+    }
+
+    /*
+     * Выборочные подтверждения байтами, которые дописываются в конец уже сериализованного сообщения:
+     * при разборе поля с одним номером склеиваются, так что результат тот же, что у decorate.
+     */
+    public static byte[] sackBytes(long[] sackRanges) {
+        return UnknownFieldSet.newBuilder().addField(SACK_FIELD, sackField(sackRanges)).build().toByteArray();
+    }
+
+    private static UnknownFieldSet.Field sackField(long[] sackRanges) {
+        UnknownFieldSet.Field.Builder sack = UnknownFieldSet.Field.newBuilder();
+        for (long value : sackRanges) {
+            sack.addVarint(value);
+        }
+        return sack.build();
+    }
+}
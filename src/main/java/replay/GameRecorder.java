@@ -0,0 +1,314 @@
+package replay;
+
+import main.java.net.protocol.SnakesProto;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Запись игры в append-only сегменты, отображённые в память.
+ * Ход игры (поток таймера) только кладёт записи в lock-free очередь,
+ * сериализацией и записью в файл занимается отдельный поток.
+ *
+ * Формат сегмента: заголовок [int MAGIC][int VERSION][int номер сегмента],
+ * далее записи [int длина][byte тип][int номер хода][данные], длина считается от типа до конца данных.
+ * Нулевая длина означает конец записанных данных.
+ *
+ * Полное состояние (ключевой кадр) пишется раз в keyframeInterval ходов и в начале каждого сегмента,
+ * между ними - дельты:
+ * [int число удалённых змей][int id...][int число съеденной еды]([int x][int y])...[int число ушедших игроков][int id...]
+ * [GameState без config: изменившиеся змеи, новая еда, изменившиеся игроки].
+ * Съеденная еда перечисляется в порядке прежнего списка, новая дописывается в конец - так список еды
+ * восстанавливается в точности. Конфигурация за игру не меняется и есть только в ключевых кадрах.
+ */
+public class GameRecorder implements Runnable {
+    public final static int MAGIC = 0x534E4B52;
+    public final static int VERSION = 3;
+    public final static int SEGMENT_HEADER_SIZE = 12;
+    public final static int RECORD_HEADER_SIZE = 9;
+
+    public final static byte STATE_RECORD = 1;
+    public final static byte STEER_RECORD = 2;
+    public final static byte DELTA_RECORD = 3;
+
+    public enum FsyncPolicy {
+        NEVER,          // сбрасывает ОС, когда сочтёт нужным
+        PERIODIC,       // раз в fsyncInterval миллисекунд
+        EVERY_RECORD    // после каждой записи, дорого
+    }
+
+    private final static class Record {
+        private final byte type;
+        private final int tick;
+        private final SnakesProto.GameState state;
+        private final int playerId;
+        private final SnakesProto.Direction direction;
+
+        private Record(byte type, int tick, SnakesProto.GameState state,
+                       int playerId, SnakesProto.Direction direction) {
+            this.type = type;
+            this.tick = tick;
+            this.state = state;
+            this.playerId = playerId;
+            this.direction = direction;
+        }
+    }
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncInterval;
+    private final int keyframeInterval;
+    private final Queue<Record> records;
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    private MappedByteBuffer segment;
+    private int segmentIndex = 0;
+    private long lastFsyncTime = 0L;
+    private boolean dirty = false;
+    private SnakesProto.GameState lastState;
+    private int lastKeyframeTick = 0;
+    private boolean keyframeRequired = true;
+
+    public GameRecorder(Path directory, String prefix, int segmentSize,
+                        FsyncPolicy fsyncPolicy, long fsyncInterval, int keyframeInterval) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncInterval = fsyncInterval;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        Files.createDirectories(directory);
+        records = new ConcurrentLinkedQueue<>();
+        openSegment(segmentSize);
+        writerThread = new Thread(this, "game-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void recordState(SnakesProto.GameState state) {
+        offer(new Record(STATE_RECORD, state.getStateOrder(), state, 0, null));
+    }
+
+    public void recordSteer(int tick, int playerId, SnakesProto.Direction direction) {
+        offer(new Record(STEER_RECORD, tick, null, playerId, direction));
+    }
+
+    private void offer(Record record) {
+        if (closed) {
+            return;
+        }
+        records.add(record);
+        LockSupport.unpark(writerThread);
+    }
+
+    public static Path segmentPath(Path directory, String prefix, int index) {
+        return directory.resolve(String.format("%s-%05d.rec", prefix, index));
+    }
+
+    @Override
+    public void run() {
+        while (!closed || !records.isEmpty()) {
+            Record record = records.poll();
+            if (record == null) {
+                flushIfNeeded();
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(
+                        fsyncPolicy == FsyncPolicy.PERIODIC ? Math.max(1, fsyncInterval) : 100));
+                continue;
+            }
+            try {
+                write(record);
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        forceSegment();
+    }
+
+    private void write(Record record) throws IOException {
+        byte type = record.type;
+        byte[] payload;
+        if (type == STATE_RECORD) {
+            if (keyframeRequired || lastState == null || record.tick - lastKeyframeTick >= keyframeInterval) {
+                payload = record.state.toByteArray();
+                lastKeyframeTick = record.tick;
+                keyframeRequired = false;
+            }
+            else {
+                type = DELTA_RECORD;
+                payload = encodeDelta(lastState, record.state);
+            }
+            lastState = record.state;
+        }
+        else {
+            payload = new byte[] {
+                    (byte) (record.playerId >>> 24), (byte) (record.playerId >>> 16),
+                    (byte) (record.playerId >>> 8), (byte) record.playerId,
+                    (byte) record.direction.getNumber()
+            };
+        }
+
+        // +4 на завершающий ноль, чтобы читатель всегда видел конец данных
+        int needed = 4 + RECORD_HEADER_SIZE + payload.length;
+        if (segment.remaining() < needed + 4) {
+            rollover(needed + 4);
+            if (type == DELTA_RECORD) {
+                // сегмент должен читаться сам по себе, поэтому начинаем его с ключевого кадра
+                payload = record.state.toByteArray();
+                type = STATE_RECORD;
+                lastKeyframeTick = record.tick;
+                needed = 4 + RECORD_HEADER_SIZE + payload.length;
+                if (segment.remaining() < needed + 4) {
+                    rollover(needed + 4);
+                }
+            }
+        }
+        segment.putInt(RECORD_HEADER_SIZE - 4 + payload.length);
+        segment.put(type);
+        segment.putInt(record.tick);
+        segment.put(payload);
+        segment.putInt(segment.position(), 0);
+        dirty = true;
+        if (fsyncPolicy == FsyncPolicy.EVERY_RECORD) {
+            forceSegment();
+        }
+    }
+
+    /*
+     * Все три списка сравниваются одинаково: элементы прежнего списка, которые идут в текущем
+     * в том же порядке, остаются на месте (змеи и игроки - по id, с заменой изменившихся),
+     * остальные удаляются, а хвост текущего списка после них дописывается целиком.
+     * Так читатель восстанавливает и состав, и порядок списков.
+     */
+    private static byte[] encodeDelta(SnakesProto.GameState previous, SnakesProto.GameState current) {
+        SnakesProto.GameState.Builder delta = current.toBuilder().clearSnakes().clearFoods().clearConfig();
+        List<Integer> removedSnakes = new ArrayList<>();
+        List<SnakesProto.GameState.Snake> currentSnakes = current.getSnakesList();
+        int keptSnakes = 0;
+        for (SnakesProto.GameState.Snake snake : previous.getSnakesList()) {
+            if (keptSnakes < currentSnakes.size() && currentSnakes.get(keptSnakes).getPlayerId() == snake.getPlayerId()) {
+                if (!snake.equals(currentSnakes.get(keptSnakes))) {
+                    delta.addSnakes(currentSnakes.get(keptSnakes));
+                }
+                keptSnakes++;
+            }
+            else {
+                removedSnakes.add(snake.getPlayerId());
+            }
+        }
+        delta.addAllSnakes(currentSnakes.subList(keptSnakes, currentSnakes.size()));
+
+        List<SnakesProto.GameState.Coord> eaten = new ArrayList<>();
+        List<SnakesProto.GameState.Coord> currentFood = current.getFoodsList();
+        int kept = 0;
+        for (SnakesProto.GameState.Coord food : previous.getFoodsList()) {
+            if (kept < currentFood.size() && sameCell(food, currentFood.get(kept))) {
+                kept++;
+            }
+            else {
+                eaten.add(food);
+            }
+        }
+        delta.addAllFoods(currentFood.subList(kept, currentFood.size()));
+
+        List<Integer> leftPlayers = new ArrayList<>();
+        List<SnakesProto.GamePlayer> currentPlayers = current.getPlayers().getPlayersList();
+        SnakesProto.GamePlayers.Builder players = SnakesProto.GamePlayers.newBuilder();
+        int keptPlayers = 0;
+        for (SnakesProto.GamePlayer player : previous.getPlayers().getPlayersList()) {
+            if (keptPlayers < currentPlayers.size() && currentPlayers.get(keptPlayers).getId() == player.getId()) {
+                if (!player.equals(currentPlayers.get(keptPlayers))) {
+                    players.addPlayers(currentPlayers.get(keptPlayers));
+                }
+                keptPlayers++;
+            }
+            else {
+                leftPlayers.add(player.getId());
+            }
+        }
+        players.addAllPlayers(currentPlayers.subList(keptPlayers, currentPlayers.size()));
+        delta.setPlayers(players);
+
+        byte[] state = delta.buildPartial().toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * removedSnakes.size() + 4 + 8 * eaten.size()
+                + 4 + 4 * leftPlayers.size() + state.length);
+        buffer.putInt(removedSnakes.size());
+        for (int id : removedSnakes) {
+            buffer.putInt(id);
+        }
+        buffer.putInt(eaten.size());
+        for (SnakesProto.GameState.Coord food : eaten) {
+            buffer.putInt(food.getX());
+            buffer.putInt(food.getY());
+        }
+        buffer.putInt(leftPlayers.size());
+        for (int id : leftPlayers) {
+            buffer.putInt(id);
+        }
+        buffer.put(state);
+        return buffer.array();
+    }
+
+    static boolean sameCell(SnakesProto.GameState.Coord first, SnakesProto.GameState.Coord second) {
+        return first.getX() == second.getX() && first.getY() == second.getY();
+    }
+
+    private void rollover(int needed) throws IOException {
+        forceSegment();
+        segmentIndex++;
+        openSegment(Math.max(segmentSize, SEGMENT_HEADER_SIZE + needed));
+    }
+
+    private void openSegment(int size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(
+                segmentPath(directory, prefix, segmentIndex).toFile(), "rw")) {
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        // отображение остаётся валидным и после закрытия файла
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putInt(segmentIndex);
+        segment.putInt(segment.position(), 0);
+        dirty = true;
+    }
+
+    private void flushIfNeeded() {
+        if (fsyncPolicy == FsyncPolicy.PERIODIC && dirty
+                && System.currentTimeMillis() - lastFsyncTime >= fsyncInterval) {
+            forceSegment();
+        }
+    }
+
+    private void forceSegment() {
+        if (dirty) {
+            segment.force();
+            dirty = false;
+        }
+        lastFsyncTime = System.currentTimeMillis();
+    }
+
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package replay;
+
+import main.java.net.protocol.SnakesProto;
+import mvc.model.GameModel;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/*
+ * Проигрывание записи в GameModel без сети: раз в stateDelay / speed миллисекунд
+ * в модель подаётся следующее состояние, перемотка идёт через индекс ключевых кадров.
+ */
+public class ReplayPlayer {
+    private final static double MIN_SPEED = 0.125;
+    private final static double MAX_SPEED = 64.0;
+
+    private final ReplayReader reader;
+    private final GameModel model;
+    private final int stateDelay;
+    private ReplayReader.Cursor cursor;
+    private Timer timer;
+    private double speed = 1.0;
+    private boolean paused = false;
+
+    public ReplayPlayer(ReplayReader reader, GameModel model) throws IOException {
+        this.reader = reader;
+        this.model = model;
+        this.stateDelay = Math.max(1, model.getGameConfig().getStateDelayMs());
+        cursor = reader.seek(reader.getFirstTick());
+        apply(cursor.getState());
+    }
+
+    private void apply(SnakesProto.GameState state) {
+        model.execute(() -> {
+            model.applyState(state);
+            // запись с хешами поля заодно проверяет, что восстановление состояний из дельт точное
+            model.verifyFieldHash(state);
+        });
+    }
+
+    public synchronized void start() {
+        restartTimer();
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    private void restartTimer() {
+        stop();
+        if (paused) {
+            return;
+        }
+        long period = Math.max(1, Math.round(stateDelay / speed));
+        timer = new Timer(true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                step();
+            }
+        }, period, period);
+    }
+
+    private synchronized void step() {
+        try {
+            if (cursor.next()) {
+                apply(cursor.getState());
+            }
+            else {
+                paused = true;
+                stop();
+            }
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+            stop();
+        }
+    }
+
+    public synchronized void seek(int tick) {
+        tick = Math.max(reader.getFirstTick(), Math.min(reader.getLastTick(), tick));
+        try {
+            cursor = reader.seek(tick);
+            apply(cursor.getState());
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public synchronized void seekRelative(int ticks) {
+        seek(cursor.getTick() + ticks);
+    }
+
+    public synchronized void seekToStart() {
+        seek(reader.getFirstTick());
+    }
+
+    public synchronized void seekToEnd() {
+        seek(reader.getLastTick());
+    }
+
+    public synchronized void faster() {
+        speed = Math.min(MAX_SPEED, speed * 2);
+        restartTimer();
+    }
+
+    public synchronized void slower() {
+        speed = Math.max(MIN_SPEED, speed / 2);
+        restartTimer();
+    }
+
+    public synchronized void togglePause() {
+        paused = !paused;
+        restartTimer();
+    }
+
+    public synchronized int getCurrentTick() {
+        return cursor.getTick();
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+}
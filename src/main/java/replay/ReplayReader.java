@@ -0,0 +1,261 @@
+package replay;
+
+import com.google.protobuf.CodedInputStream;
+import main.java.net.protocol.SnakesProto;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/*
+ * Чтение записи, сделанной GameRecorder. Все сегменты отображаются в память только для чтения,
+ * при открытии просматриваются лишь заголовки записей и строится разреженный индекс ключевых кадров.
+ * Состояние на ходу T восстанавливается от ближайшего ключевого кадра не позже T,
+ * то есть за O(keyframeInterval) дельт, а не за O(T).
+ */
+public class ReplayReader {
+    private final List<MappedByteBuffer> segments;
+    private int[] keyframeTicks;
+    private long[] keyframePositions;
+    private int keyframeCount = 0;
+    private int firstTick = -1;
+    private int lastTick = -1;
+
+    public ReplayReader(Path anySegment) throws IOException {
+        segments = new ArrayList<>();
+        keyframeTicks = new int[64];
+        keyframePositions = new long[64];
+
+        String fileName = anySegment.getFileName().toString();
+        int dash = fileName.lastIndexOf('-');
+        if (dash < 0 || !fileName.endsWith(".rec")) {
+            throw new IOException("Не похоже на файл записи: " + fileName);
+        }
+        Path directory = anySegment.toAbsolutePath().getParent();
+        String prefix = fileName.substring(0, dash);
+
+        for (int index = 0; ; ++index) {
+            Path path = GameRecorder.segmentPath(directory, prefix, index);
+            if (!Files.exists(path)) {
+                break;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                if (segment.getInt(0) != GameRecorder.MAGIC || segment.getInt(4) != GameRecorder.VERSION) {
+                    throw new IOException("Неподдерживаемый формат записи: " + path);
+                }
+                segments.add(segment);
+                indexSegment(segments.size() - 1);
+            }
+        }
+        if (keyframeCount == 0) {
+            throw new IOException("В записи нет ни одного состояния");
+        }
+    }
+
+    private void indexSegment(int segmentIndex) {
+        ByteBuffer segment = segments.get(segmentIndex);
+        int position = GameRecorder.SEGMENT_HEADER_SIZE;
+        while (position + 4 <= segment.limit()) {
+            int length = segment.getInt(position);
+            if (length <= 0 || position + 4 + length > segment.limit()) {
+                break;
+            }
+            byte type = segment.get(position + 4);
+            int tick = segment.getInt(position + 5);
+            if (type == GameRecorder.STATE_RECORD) {
+                addKeyframe(tick, pack(segmentIndex, position));
+            }
+            if (type == GameRecorder.STATE_RECORD || type == GameRecorder.DELTA_RECORD) {
+                if (firstTick < 0) {
+                    firstTick = tick;
+                }
+                lastTick = tick;
+            }
+            position += 4 + length;
+        }
+    }
+
+    private void addKeyframe(int tick, long position) {
+        if (keyframeCount == keyframeTicks.length) {
+            keyframeTicks = Arrays.copyOf(keyframeTicks, keyframeCount * 2);
+            keyframePositions = Arrays.copyOf(keyframePositions, keyframeCount * 2);
+        }
+        keyframeTicks[keyframeCount] = tick;
+        keyframePositions[keyframeCount] = position;
+        keyframeCount++;
+    }
+
+    private static long pack(int segmentIndex, int position) {
+        return ((long) segmentIndex << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    public int getFirstTick() {
+        return firstTick;
+    }
+
+    public int getLastTick() {
+        return lastTick;
+    }
+
+    public SnakesProto.GameConfig getConfig() throws IOException {
+        return seek(firstTick).getState().getConfig();
+    }
+
+    // Курсор на последнее состояние с номером хода не больше tick
+    public Cursor seek(int tick) throws IOException {
+        int index = Arrays.binarySearch(keyframeTicks, 0, keyframeCount, tick);
+        if (index < 0) {
+            index = Math.max(0, -index - 2);
+        }
+        Cursor cursor = new Cursor(keyframePositions[index]);
+        cursor.next();
+        while (cursor.peekTick() >= 0 && cursor.peekTick() <= tick) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    public class Cursor {
+        private int segmentIndex;
+        private int position;
+        private SnakesProto.GameState state;
+
+        private Cursor(long packedPosition) {
+            segmentIndex = (int) (packedPosition >>> 32);
+            position = (int) packedPosition;
+        }
+
+        public SnakesProto.GameState getState() {
+            return state;
+        }
+
+        public int getTick() {
+            return state == null ? -1 : state.getStateOrder();
+        }
+
+        // Номер хода следующего состояния или -1, если запись закончилась
+        public int peekTick() {
+            int savedSegment = segmentIndex;
+            int savedPosition = position;
+            int tick = skipToStateRecord() ? segments.get(segmentIndex).getInt(position + 5) : -1;
+            segmentIndex = savedSegment;
+            position = savedPosition;
+            return tick;
+        }
+
+        public boolean next() throws IOException {
+            if (!skipToStateRecord()) {
+                return false;
+            }
+            ByteBuffer segment = segments.get(segmentIndex);
+            int length = segment.getInt(position);
+            byte type = segment.get(position + 4);
+            ByteBuffer payload = segment.slice(position + GameRecorder.RECORD_HEADER_SIZE,
+                    length - (GameRecorder.RECORD_HEADER_SIZE - 4));
+            if (type == GameRecorder.STATE_RECORD) {
+                state = SnakesProto.GameState.parseFrom(payload);
+            }
+            else {
+                state = applyDelta(state, payload);
+            }
+            position += 4 + length;
+            return true;
+        }
+
+        private boolean skipToStateRecord() {
+            while (segmentIndex < segments.size()) {
+                ByteBuffer segment = segments.get(segmentIndex);
+                if (position + 4 > segment.limit() || segment.getInt(position) <= 0) {
+                    segmentIndex++;
+                    position = GameRecorder.SEGMENT_HEADER_SIZE;
+                    continue;
+                }
+                byte type = segment.get(position + 4);
+                if (type == GameRecorder.STATE_RECORD || type == GameRecorder.DELTA_RECORD) {
+                    return true;
+                }
+                position += 4 + segment.getInt(position);
+            }
+            return false;
+        }
+    }
+
+    private static SnakesProto.GameState applyDelta(SnakesProto.GameState previous, ByteBuffer payload)
+            throws IOException {
+        Set<Integer> removed = readIds(payload);
+        int eatenCount = payload.getInt();
+        List<SnakesProto.GameState.Coord> eaten = new ArrayList<>(eatenCount);
+        for (int i = 0; i < eatenCount; ++i) {
+            eaten.add(SnakesProto.GameState.Coord.newBuilder().setX(payload.getInt()).setY(payload.getInt()).build());
+        }
+        Set<Integer> leftPlayers = readIds(payload);
+        // конфигурации в дельте нет, остальные обязательные поля на месте
+        SnakesProto.GameState delta = SnakesProto.GameState.parser().parsePartialFrom(CodedInputStream.newInstance(payload));
+
+        Map<Integer, SnakesProto.GameState.Snake> changed = new HashMap<>();
+        for (SnakesProto.GameState.Snake snake : delta.getSnakesList()) {
+            changed.put(snake.getPlayerId(), snake);
+        }
+        SnakesProto.GameState.Builder builder = delta.toBuilder().clearSnakes().clearFoods()
+                .setConfig(previous.getConfig());
+        for (SnakesProto.GameState.Snake snake : previous.getSnakesList()) {
+            if (removed.contains(snake.getPlayerId())) {
+                continue;
+            }
+            SnakesProto.GameState.Snake replacement = changed.remove(snake.getPlayerId());
+            builder.addSnakes(replacement != null ? replacement : snake);
+        }
+        // удалённые id могли вернуться в хвосте текущего списка, такие змеи тоже дописываются
+        for (SnakesProto.GameState.Snake snake : delta.getSnakesList()) {
+            if (changed.containsKey(snake.getPlayerId())) {
+                builder.addSnakes(snake);
+            }
+        }
+
+        int next = 0;
+        for (SnakesProto.GameState.Coord food : previous.getFoodsList()) {
+            if (next < eaten.size() && GameRecorder.sameCell(food, eaten.get(next))) {
+                next++;
+            }
+            else {
+                builder.addFoods(food);
+            }
+        }
+        builder.addAllFoods(delta.getFoodsList());
+
+        Map<Integer, SnakesProto.GamePlayer> changedPlayers = new HashMap<>();
+        for (SnakesProto.GamePlayer player : delta.getPlayers().getPlayersList()) {
+            changedPlayers.put(player.getId(), player);
+        }
+        SnakesProto.GamePlayers.Builder players = SnakesProto.GamePlayers.newBuilder();
+        for (SnakesProto.GamePlayer player : previous.getPlayers().getPlayersList()) {
+            if (leftPlayers.contains(player.getId())) {
+                continue;
+            }
+            SnakesProto.GamePlayer replacement = changedPlayers.remove(player.getId());
+            players.addPlayers(replacement != null ? replacement : player);
+        }
+        for (SnakesProto.GamePlayer player : delta.getPlayers().getPlayersList()) {
+            if (changedPlayers.containsKey(player.getId())) {
+                players.addPlayers(player);
+            }
+        }
+        builder.setPlayers(players);
+        return builder.build();
+    }
+
+    private static Set<Integer> readIds(ByteBuffer payload) {
+        Set<Integer> ids = new HashSet<>();
+        int count = payload.getInt();
+        for (int i = 0; i < count; ++i) {
+            ids.add(payload.getInt());
+        }
+        return ids;
+    }
+}
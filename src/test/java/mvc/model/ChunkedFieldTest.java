@@ -0,0 +1,66 @@
+package mvc.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChunkedFieldTest {
+    private final static int CHUNK = ChunkedField.CHUNK_SIZE;
+
+    // Опустевший участок возвращается в запас обнулённым: участок, получивший его, не видит старых клеток
+    @Test
+    public void freedChunkIsReusedClean() {
+        ChunkedField field = new ChunkedField(3 * CHUNK, CHUNK);
+        field.set(1, 2, GameModel.CellType.FOOD);
+        field.set(5, 6, GameModel.CellType.ENEMY_BODY);
+        field.set(1, 2, GameModel.CellType.EMPTY);
+        field.set(5, 6, GameModel.CellType.EMPTY);
+        assertEquals(0L, field.getHash());
+        assertEquals(3 * CHUNK * CHUNK, field.getEmptyCount());
+
+        field.set(2 * CHUNK + 9, 9, GameModel.CellType.FOOD);
+        assertEquals(0, field.getOrdinal(2 * CHUNK + 1, 2));
+        assertEquals(0, field.getOrdinal(2 * CHUNK + 5, 6));
+        assertEquals(0, field.getOrdinal(1, 2));
+        assertEquals(GameModel.CellType.FOOD, field.get(2 * CHUNK + 9, 9));
+        assertEquals(3 * CHUNK * CHUNK - 1, field.getEmptyCount());
+    }
+
+    @Test
+    public void clearFreesEveryChunk() {
+        ChunkedField field = new ChunkedField(2 * CHUNK, 2 * CHUNK);
+        for (int i = 0; i < 2 * CHUNK; ++i) {
+            field.set(i, i, GameModel.CellType.ENEMY_HEAD);
+        }
+        field.clear();
+        assertEquals(0L, field.getHash());
+        assertEquals(4 * CHUNK * CHUNK, field.getEmptyCount());
+
+        field.set(CHUNK + 1, 0, GameModel.CellType.FOOD);
+        for (int i = 0; i < 2 * CHUNK; ++i) {
+            assertEquals(0, field.getOrdinal(i, i));
+        }
+    }
+
+    // Запись пустой клетки в незаведённый участок участок не заводит
+    @Test
+    public void emptyWriteDoesNotAllocate() {
+        ChunkedField field = new ChunkedField(CHUNK, CHUNK);
+        field.set(3, 3, GameModel.CellType.EMPTY);
+        assertEquals(CHUNK * CHUNK, field.getEmptyCount());
+        int[] cell = new int[2];
+        field.findEmpty(CHUNK + 3, cell);
+        assertArrayEquals(new int[] {3, 1}, cell);
+    }
+
+    // Участок по краю поля неполный, пустые клетки в нём считаются по настоящей ширине
+    @Test
+    public void findEmptyInPartialEdgeChunk() {
+        ChunkedField field = new ChunkedField(CHUNK + 3, 2);
+        int[] cell = new int[2];
+        field.findEmpty(CHUNK * 2, cell);
+        assertArrayEquals(new int[] {CHUNK, 0}, cell);
+        field.findEmpty(CHUNK * 2 + 4, cell);
+        assertArrayEquals(new int[] {CHUNK + 1, 1}, cell);
+    }
+}
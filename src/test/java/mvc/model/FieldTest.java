@@ -0,0 +1,176 @@
+package mvc.model;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.*;
+
+// Общие свойства обеих реализаций поля; размер не кратен участку ChunkedField
+@RunWith(Parameterized.class)
+public class FieldTest {
+    private final static int WIDTH = 130;
+    private final static int HEIGHT = 70;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> implementations() {
+        BiFunction<Integer, Integer, Field> dense = DenseField::new;
+        BiFunction<Integer, Integer, Field> chunked = ChunkedField::new;
+        return Arrays.asList(new Object[][] {{"dense", dense}, {"chunked", chunked}});
+    }
+
+    private final BiFunction<Integer, Integer, Field> factory;
+
+    public FieldTest(String name, BiFunction<Integer, Integer, Field> factory) {
+        this.factory = factory;
+    }
+
+    private Field create() {
+        return factory.apply(WIDTH, HEIGHT);
+    }
+
+    private static void fillRandom(Field field, Random random, int cells) {
+        GameModel.CellType[] types = GameModel.CellType.values();
+        for (int i = 0; i < cells; ++i) {
+            field.set(random.nextInt(field.getWidth()), random.nextInt(field.getHeight()),
+                    types[random.nextInt(types.length)]);
+        }
+    }
+
+    @Test
+    public void sameCellsGiveSameHashAcrossImplementations() {
+        Field field = create();
+        Field dense = new DenseField(WIDTH, HEIGHT);
+        Field chunked = new ChunkedField(WIDTH, HEIGHT);
+        fillRandom(field, new Random(1), 3000);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                dense.set(x, y, field.get(x, y));
+                // обратный порядок записи: хеш не должен от него зависеть
+                chunked.set(WIDTH - 1 - x, HEIGHT - 1 - y, field.get(WIDTH - 1 - x, HEIGHT - 1 - y));
+            }
+        }
+        assertEquals(dense.getHash(), field.getHash());
+        assertEquals(chunked.getHash(), field.getHash());
+        assertNotEquals(0L, field.getHash());
+    }
+
+    @Test
+    public void hashReturnsToZeroWhenCleared() {
+        Field field = create();
+        fillRandom(field, new Random(2), 500);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                field.set(x, y, GameModel.CellType.EMPTY);
+            }
+        }
+        assertEquals(0L, field.getHash());
+        assertEquals(WIDTH * HEIGHT, field.getEmptyCount());
+
+        fillRandom(field, new Random(2), 500);
+        field.clear();
+        assertEquals(0L, field.getHash());
+        assertEquals(WIDTH * HEIGHT, field.getEmptyCount());
+    }
+
+    // Свои, чужие и зомби-змеи хешируются одинаково: у разных узлов они раскрашены по-разному
+    @Test
+    public void hashIgnoresOwnership() {
+        Field mine = create();
+        Field enemy = create();
+        mine.set(3, 4, GameModel.CellType.MY_HEAD);
+        mine.set(3, 5, GameModel.CellType.MY_BODY);
+        enemy.set(3, 4, GameModel.CellType.ENEMY_HEAD);
+        enemy.set(3, 5, GameModel.CellType.ENEMY_BODY);
+        assertEquals(mine.getHash(), enemy.getHash());
+
+        enemy.set(3, 5, GameModel.CellType.FOOD);
+        assertNotEquals(mine.getHash(), enemy.getHash());
+    }
+
+    @Test
+    public void copyKeepsCellsAndHash() {
+        Field field = create();
+        fillRandom(field, new Random(3), 800);
+        Field copy = field.copy();
+        field.set(0, 0, GameModel.CellType.FOOD);
+        field.set(1, 0, GameModel.CellType.EMPTY);
+        copy.set(0, 0, GameModel.CellType.FOOD);
+        copy.set(1, 0, GameModel.CellType.EMPTY);
+        assertEquals(field.getHash(), copy.getHash());
+        assertEquals(field.getEmptyCount(), copy.getEmptyCount());
+    }
+
+    // findEmpty перечисляет все пустые клетки по порядку, за последней - исключение
+    @Test
+    public void findEmptyEnumeratesEveryEmptyCell() {
+        Field field = create();
+        fillRandom(field, new Random(4), 6000);
+        int[] cell = new int[2];
+        int n = 0;
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                if (field.getOrdinal(x, y) != 0) {
+                    continue;
+                }
+                field.findEmpty(n++, cell);
+                if (field instanceof DenseField) {
+                    // плотное поле обходит клетки построчно
+                    assertArrayEquals(new int[] {x, y}, cell);
+                }
+            }
+        }
+        assertEquals(field.getEmptyCount(), n);
+
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < n; ++i) {
+            field.findEmpty(i, cell);
+            assertEquals(0, field.getOrdinal(cell[0], cell[1]));
+            assertTrue(seen.add(cell[1] * WIDTH + cell[0]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findEmptyPastLastCellThrows() {
+        Field field = create();
+        fillRandom(field, new Random(5), 1000);
+        field.findEmpty(field.getEmptyCount(), new int[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findEmptyOnFullFieldThrows() {
+        Field field = factory.apply(3, 2);
+        for (int y = 0; y < 2; ++y) {
+            for (int x = 0; x < 3; ++x) {
+                field.set(x, y, GameModel.CellType.FOOD);
+            }
+        }
+        assertEquals(0, field.getEmptyCount());
+        field.findEmpty(0, new int[2]);
+    }
+
+    @Test
+    public void findFreeSquare() {
+        Field field = factory.apply(10, 10);
+        int[] corner = new int[2];
+        assertTrue(field.findFreeSquare(5, new SplittableRandom(1), corner));
+        assertTrue(corner[0] + 5 <= 10 && corner[1] + 5 <= 10);
+        assertFalse(field.findFreeSquare(11, new SplittableRandom(1), corner));
+
+        // свободен только квадрат с углом (5, 5)
+        for (int y = 0; y < 10; ++y) {
+            for (int x = 0; x < 10; ++x) {
+                if (x < 5 || y < 5) {
+                    field.set(x, y, GameModel.CellType.FOOD);
+                }
+            }
+        }
+        assertTrue(field.findFreeSquare(5, new SplittableRandom(1), corner));
+        assertArrayEquals(new int[] {5, 5}, corner);
+        field.set(9, 9, GameModel.CellType.FOOD);
+        assertFalse(field.findFreeSquare(5, new SplittableRandom(1), corner));
+    }
+}
@@ -0,0 +1,187 @@
+package mvc.model;
+
+import main.java.net.protocol.SnakesProto;
+import net.protocol.Constants;
+import net.protocol.ProtocolExtensions;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+// Параллельный ход даёт в точности то же, что последовательный: одна и та же игра обоими способами
+public class ParallelTickTest {
+    private final static int WIDTH = 200;
+    private final static int HEIGHT = 120;
+    private final static int SNAKES = 320;
+    private final static int TICKS = 40;
+
+    // Змеи из нескольких изломов по всему полю, изредка длинные: тела задевают много полос и пересекают края
+    private static SnakesProto.GameState state(long seed, boolean zombiesOnly) {
+        Random random = new Random(seed);
+        SnakesProto.GameConfig config = SnakesProto.GameConfig.newBuilder()
+                .setWidth(WIDTH).setHeight(HEIGHT).setFoodStatic(200).setFoodPerPlayer(0.5f).setDeadFoodProb(0.5f)
+                .setUnknownFields(ProtocolExtensions.gameSeedFields(seed))
+                .build();
+        SnakesProto.GameState.Builder builder = SnakesProto.GameState.newBuilder().setStateOrder(1).setConfig(config);
+        SnakesProto.GamePlayers.Builder players = SnakesProto.GamePlayers.newBuilder();
+        for (int id = 1; id <= SNAKES; ++id) {
+            SnakesProto.GameState.Snake.Builder snake = SnakesProto.GameState.Snake.newBuilder()
+                    .setPlayerId(id)
+                    .setState(zombiesOnly || random.nextInt(3) == 0 ?
+                            SnakesProto.GameState.Snake.SnakeState.ZOMBIE : SnakesProto.GameState.Snake.SnakeState.ALIVE)
+                    .addPoints(coord(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+            boolean horizontal = random.nextBoolean();
+            int segments = 1 + random.nextInt(4);
+            for (int k = 0; k < segments; ++k) {
+                int length = (1 + random.nextInt(k == 0 ? 4 : random.nextInt(20) == 0 ? 2 * HEIGHT : 12)) * (random.nextBoolean() ? 1 : -1);
+                if (k == 0) {
+                    // голова смотрит от первого отрезка тела
+                    snake.setHeadDirection(horizontal ?
+                            (length > 0 ? SnakesProto.Direction.LEFT : SnakesProto.Direction.RIGHT) :
+                            (length > 0 ? SnakesProto.Direction.UP : SnakesProto.Direction.DOWN));
+                }
+                snake.addPoints(horizontal ? coord(length, 0) : coord(0, length));
+                horizontal = !horizontal;
+            }
+            builder.addSnakes(snake);
+            players.addPlayers(SnakesProto.GamePlayer.newBuilder()
+                    .setName("p" + id).setId(id).setIpAddress("").setPort(id)
+                    .setRole(SnakesProto.NodeRole.NORMAL).setScore(0));
+        }
+        builder.setPlayers(players);
+        for (int i = 0; i < SNAKES / 2; ++i) {
+            builder.addFoods(coord(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+        }
+        return builder.build();
+    }
+
+    private static SnakesProto.GameState.Coord.Builder coord(int x, int y) {
+        return SnakesProto.GameState.Coord.newBuilder().setX(x).setY(y);
+    }
+
+    private static GameModel model(SnakesProto.GameState state, boolean parallel) {
+        GameModel model = new GameModel(state.getConfig());
+        model.applyState(state);
+        model.setParallelTick(parallel);
+        return model;
+    }
+
+    // Одинаковые повороты обеим моделям
+    private static void steer(GameModel sequential, GameModel parallel, Random random) {
+        for (Snake snake : sequential.getSnakeMap().values()) {
+            if (random.nextInt(4) == 0) {
+                SnakesProto.Direction direction = SnakesProto.Direction.values()[random.nextInt(4)];
+                snake.trySetDirection(direction);
+                parallel.getSnakeMap().get(snake.getId()).trySetDirection(direction);
+            }
+        }
+    }
+
+    // Пары змей, чьи головы после хода окажутся в одной клетке
+    private static int headToHead(GameModel model) {
+        Map<List<Integer>, Integer> heads = new HashMap<>();
+        int collisions = 0;
+        for (Snake snake : model.getSnakeMap().values()) {
+            Snake probe = new Snake(snake);
+            probe.predictMove();
+            int[] head = probe.getKeyPoints().get(0);
+            collisions += heads.merge(Arrays.asList(head[0], head[1]), 1, Integer::sum) - 1;
+        }
+        return collisions;
+    }
+
+    private static void assertSameGame(GameModel expected, GameModel actual, int tick) {
+        String message = "ход " + tick;
+        Field expectedField = expected.getField();
+        Field actualField = actual.getField();
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                if (expectedField.getOrdinal(x, y) != actualField.getOrdinal(x, y)) {
+                    fail(message + ": клетка (" + x + ", " + y + ")");
+                }
+            }
+        }
+        assertEquals(message, expectedField.getHash(), actualField.getHash());
+        assertEquals(message, expectedField.getEmptyCount(), actualField.getEmptyCount());
+
+        assertEquals(message, expected.getFood().size(), actual.getFood().size());
+        for (int i = 0; i < expected.getFood().size(); ++i) {
+            assertArrayEquals(message, expected.getFood().get(i), actual.getFood().get(i));
+        }
+
+        assertEquals(message, expected.getSnakeMap().keySet(), actual.getSnakeMap().keySet());
+        for (Snake snake : expected.getSnakeMap().values()) {
+            Snake other = actual.getSnakeMap().get(snake.getId());
+            assertEquals(message, snake.getKeyPoints().size(), other.getKeyPoints().size());
+            for (int i = 0; i < snake.getKeyPoints().size(); ++i) {
+                assertArrayEquals(message, snake.getKeyPoints().get(i), other.getKeyPoints().get(i));
+            }
+            assertEquals(message, snake.getDirection(), other.getDirection());
+            assertEquals(message, snake.getState(), other.getState());
+        }
+
+        for (Player player : expected.getPlayerMap().values()) {
+            Player other = actual.getPlayerMap().get(player.getId());
+            assertEquals(message, player.getScore(), other.getScore());
+            assertEquals(message, player.getNodeRole(), other.getNodeRole());
+        }
+    }
+
+    /*
+     * lockstep == false - ход мастера: еда с погибших змей и досыпка случайные, змеи только зомби
+     * (гибель живой змеи у мастера рассылает сообщения). Иначе ход по кадру lockstep с живыми змеями
+     * и одной и той же новой едой для обеих моделей.
+     */
+    private static void runGame(long seed, boolean lockstep) {
+        SnakesProto.GameState state = state(seed, !lockstep);
+        GameModel sequential = model(state, false);
+        GameModel parallel = model(state, true);
+        assertSameGame(sequential, parallel, 0);
+
+        Random steering = new Random(seed);
+        int parallelTicks = 0;
+        int collisions = 0;
+        for (int tick = 1; tick <= TICKS; ++tick) {
+            steer(sequential, parallel, steering);
+            if (ParallelTick.isEnabled(true, parallel.getSnakeMap().size())) {
+                ++parallelTicks;
+            }
+            collisions += headToHead(sequential);
+            List<int[]> addedFood = null;
+            if (lockstep) {
+                addedFood = new ArrayList<>();
+                for (int i = 0; i < 5; ++i) {
+                    addedFood.add(new int[] {steering.nextInt(WIDTH), steering.nextInt(HEIGHT)});
+                }
+            }
+            sequential.simulateTick(addedFood);
+            parallel.simulateTick(addedFood);
+            assertSameGame(sequential, parallel, tick);
+        }
+        // сравнение что-то проверило: параллельный ход шёл, головы сталкивались
+        assertTrue(parallelTicks > TICKS / 2);
+        assertTrue(collisions > 0);
+    }
+
+    @Test
+    public void masterTickMatchesSequential() {
+        for (long seed = 1; seed <= 3; ++seed) {
+            runGame(seed, false);
+        }
+    }
+
+    @Test
+    public void lockstepTickMatchesSequential() {
+        for (long seed = 1; seed <= 3; ++seed) {
+            runGame(seed, true);
+        }
+    }
+
+    @Test
+    public void fewSnakesStaySequential() {
+        assertFalse(ParallelTick.isEnabled(true, Constants.PARALLEL_TICK_MIN_SNAKES - 1));
+        assertTrue(ParallelTick.isEnabled(true, Constants.PARALLEL_TICK_MIN_SNAKES));
+        assertFalse(ParallelTick.isEnabled(false, Constants.PARALLEL_TICK_MIN_SNAKES));
+    }
+}
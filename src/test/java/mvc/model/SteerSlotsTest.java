@@ -0,0 +1,135 @@
+package mvc.model;
+
+import main.java.net.protocol.SnakesProto;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class SteerSlotsTest {
+    private static List<long[]> drainAll(SteerSlots slots) {
+        List<long[]> result = new ArrayList<>();
+        slots.drain((playerId, seq, direction) -> result.add(new long[] {playerId, seq, direction.ordinal()}));
+        return result;
+    }
+
+    @Test
+    public void drainReturnsSeqAndDirection() {
+        SteerSlots slots = new SteerSlots();
+        long seq = (1L << 40) + 7;
+        assertTrue(slots.offer(3, seq, SnakesProto.Direction.LEFT));
+
+        List<long[]> drained = drainAll(slots);
+        assertEquals(1, drained.size());
+        assertArrayEquals(new long[] {3, seq, SnakesProto.Direction.LEFT.ordinal()}, drained.get(0));
+        assertTrue(drainAll(slots).isEmpty());
+    }
+
+    @Test
+    public void keepsSteerWithHighestSeq() {
+        SteerSlots slots = new SteerSlots();
+        assertTrue(slots.offer(1, 5, SnakesProto.Direction.UP));
+        assertFalse(slots.offer(1, 4, SnakesProto.Direction.DOWN));
+        assertFalse(slots.offer(1, 5, SnakesProto.Direction.DOWN));
+        assertTrue(slots.offer(1, 6, SnakesProto.Direction.RIGHT));
+
+        List<long[]> drained = drainAll(slots);
+        assertEquals(1, drained.size());
+        assertEquals(6, drained.get(0)[1]);
+        assertEquals(SnakesProto.Direction.RIGHT.ordinal(), drained.get(0)[2]);
+    }
+
+    @Test
+    public void seqSurvivesDrain() {
+        SteerSlots slots = new SteerSlots();
+        slots.offer(2, 10, SnakesProto.Direction.UP);
+        drainAll(slots);
+
+        // запоздавший повтор уже применённого поворота
+        assertFalse(slots.offer(2, 10, SnakesProto.Direction.UP));
+        assertFalse(slots.offer(2, 9, SnakesProto.Direction.LEFT));
+        assertTrue(drainAll(slots).isEmpty());
+        assertTrue(slots.offer(2, 11, SnakesProto.Direction.LEFT));
+    }
+
+    @Test
+    public void offerLatestOutranksPreviousSteers() {
+        SteerSlots slots = new SteerSlots();
+        slots.offer(1, 5, SnakesProto.Direction.UP);
+        slots.offerLatest(1, SnakesProto.Direction.LEFT);
+
+        List<long[]> drained = drainAll(slots);
+        assertEquals(1, drained.size());
+        assertEquals(6, drained.get(0)[1]);
+        assertEquals(SnakesProto.Direction.LEFT.ordinal(), drained.get(0)[2]);
+        assertFalse(slots.offer(1, 6, SnakesProto.Direction.DOWN));
+        assertTrue(slots.offer(1, 7, SnakesProto.Direction.DOWN));
+    }
+
+    @Test
+    public void ignoresNegativePlayerId() {
+        SteerSlots slots = new SteerSlots();
+        assertFalse(slots.offer(-1, 1, SnakesProto.Direction.UP));
+        slots.offerLatest(-1, SnakesProto.Direction.UP);
+        assertTrue(drainAll(slots).isEmpty());
+    }
+
+    @Test
+    public void growthKeepsExistingSlots() {
+        SteerSlots slots = new SteerSlots();
+        slots.offer(1, 3, SnakesProto.Direction.DOWN);
+        slots.offer(15, 4, SnakesProto.Direction.LEFT);
+        slots.offer(1000, 5, SnakesProto.Direction.RIGHT);
+
+        List<long[]> drained = drainAll(slots);
+        assertEquals(3, drained.size());
+        assertArrayEquals(new long[] {1, 3, SnakesProto.Direction.DOWN.ordinal()}, drained.get(0));
+        assertArrayEquals(new long[] {15, 4, SnakesProto.Direction.LEFT.ordinal()}, drained.get(1));
+        assertArrayEquals(new long[] {1000, 5, SnakesProto.Direction.RIGHT.ordinal()}, drained.get(2));
+    }
+
+    // Пока массив растёт, старые ячейки FROZEN: писатели должны дождаться нового массива, а не потерять поворот
+    @Test
+    public void concurrentOffersDuringGrowth() throws InterruptedException {
+        int threads = 4;
+        int players = 2048;
+        int rounds = 50;
+        SteerSlots slots = new SteerSlots();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            int first = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException ex) {
+                    return;
+                }
+                for (int round = 1; round <= rounds; ++round) {
+                    for (int playerId = first; playerId < players; playerId += threads) {
+                        slots.offer(playerId, round, SnakesProto.Direction.values()[round % 4]);
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        long[] seqs = new long[players];
+        slots.drain((playerId, seq, direction) -> {
+            seqs[playerId] = seq;
+            assertEquals(SnakesProto.Direction.values()[(int) (seq % 4)], direction);
+        });
+        for (int playerId = 0; playerId < players; ++playerId) {
+            assertEquals("player " + playerId, rounds, seqs[playerId]);
+        }
+    }
+}
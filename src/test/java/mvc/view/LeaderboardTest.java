@@ -0,0 +1,79 @@
+package mvc.view;
+
+import main.java.net.protocol.SnakesProto;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LeaderboardTest {
+    private static SnakesProto.GamePlayers players(int... idAndScore) {
+        SnakesProto.GamePlayers.Builder builder = SnakesProto.GamePlayers.newBuilder();
+        for (int i = 0; i < idAndScore.length; i += 2) {
+            builder.addPlayers(SnakesProto.GamePlayer.newBuilder()
+                    .setName("p" + idAndScore[i]).setId(idAndScore[i]).setIpAddress("").setPort(0)
+                    .setRole(SnakesProto.NodeRole.NORMAL).setScore(idAndScore[i + 1]));
+        }
+        return builder.build();
+    }
+
+    private static List<Integer> ids(List<Leaderboard.Entry> entries) {
+        List<Integer> ids = new ArrayList<>();
+        for (Leaderboard.Entry entry : entries) {
+            ids.add(entry.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void ordersByScoreThenId() {
+        Leaderboard leaderboard = new Leaderboard();
+        assertTrue(leaderboard.update(players(5, 3, 2, 7, 9, 3, 1, 3)));
+        assertEquals(List.of(2, 1, 5, 9), ids(leaderboard.top(10)));
+    }
+
+    @Test
+    public void tieKeepsIdOrderWhenScoresCatchUp() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.update(players(1, 5, 2, 4));
+        assertEquals(List.of(1, 2), ids(leaderboard.top(10)));
+
+        leaderboard.update(players(1, 5, 2, 5));
+        assertEquals(List.of(1, 2), ids(leaderboard.top(10)));
+
+        leaderboard.update(players(1, 5, 2, 6));
+        assertEquals(List.of(2, 1), ids(leaderboard.top(10)));
+    }
+
+    // Порядок игроков в сообщении на рейтинг не влияет
+    @Test
+    public void tieIgnoresMessageOrder() {
+        Leaderboard first = new Leaderboard();
+        Leaderboard second = new Leaderboard();
+        first.update(players(3, 1, 1, 1, 2, 1));
+        second.update(players(2, 1, 3, 1, 1, 1));
+        assertEquals(List.of(1, 2, 3), ids(first.top(10)));
+        assertEquals(ids(first.top(10)), ids(second.top(10)));
+    }
+
+    @Test
+    public void reportsChangesOnly() {
+        Leaderboard leaderboard = new Leaderboard();
+        assertTrue(leaderboard.update(players(1, 0, 2, 0)));
+        assertFalse(leaderboard.update(players(2, 0, 1, 0)));
+        assertTrue(leaderboard.update(players(1, 1, 2, 0)));
+        assertTrue(leaderboard.update(players(1, 1)));
+        assertEquals(1, leaderboard.size());
+        assertFalse(leaderboard.update(players(1, 1)));
+    }
+
+    @Test
+    public void topIsLimited() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.update(players(1, 1, 2, 2, 3, 3, 4, 4));
+        assertEquals(List.of(4, 3), ids(leaderboard.top(2)));
+        assertTrue(leaderboard.top(0).isEmpty());
+    }
+}
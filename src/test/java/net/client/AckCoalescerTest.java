@@ -0,0 +1,81 @@
+package net.client;
+
+import net.protocol.Constants;
+import net.protocol.ProtocolExtensions;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class AckCoalescerTest {
+    private final static InetAddress ADDRESS = InetAddress.getLoopbackAddress();
+    private final static int PORT = 5000;
+
+    private AckCoalescer coalescer;
+    private int wakeUps;
+
+    @Before
+    public void setUp() {
+        PeerFeatures features = new PeerFeatures();
+        features.update(ADDRESS, PORT, ProtocolExtensions.FEATURE_SACK);
+        coalescer = new AckCoalescer(null, features, () -> ++wakeUps);
+        Assume.assumeTrue("SACK выключен свойством snake.sack", coalescer.defer(0, 1, ADDRESS, PORT));
+        coalescer.takeRanges(ADDRESS, PORT);
+        wakeUps = 0;
+    }
+
+    @Test
+    public void peerWithoutSackIsNotDeferred() {
+        assertFalse(coalescer.defer(1, 1, ADDRESS, PORT + 1));
+        assertNull(coalescer.takeRanges(ADDRESS, PORT + 1));
+    }
+
+    @Test
+    public void consecutiveSeqsMergeIntoOneRange() {
+        for (long seq = 10; seq <= 14; ++seq) {
+            coalescer.defer(seq, 1, ADDRESS, PORT);
+        }
+        assertArrayEquals(new long[] {10, 14}, coalescer.takeRanges(ADDRESS, PORT));
+        assertNull(coalescer.takeRanges(ADDRESS, PORT));
+    }
+
+    @Test
+    public void gapsSplitRanges() {
+        for (long seq : new long[] {7, 3, 4, 9, 5, 12, 8}) {
+            coalescer.defer(seq, 1, ADDRESS, PORT);
+        }
+        assertArrayEquals(new long[] {3, 5, 7, 9, 12, 12}, coalescer.takeRanges(ADDRESS, PORT));
+    }
+
+    @Test
+    public void duplicatesAreAckedOnce() {
+        coalescer.defer(20, 1, ADDRESS, PORT);
+        coalescer.defer(20, 1, ADDRESS, PORT);
+        coalescer.defer(21, 1, ADDRESS, PORT);
+        assertArrayEquals(new long[] {20, 21}, coalescer.takeRanges(ADDRESS, PORT));
+    }
+
+    @Test
+    public void nothingPendingGivesNull() {
+        assertNull(coalescer.takeRanges(ADDRESS, PORT));
+    }
+
+    // Поток отправки будят только при появлении нового срока, а не на каждый номер
+    @Test
+    public void firstPendingSeqSetsFlushTime() {
+        assertEquals(Long.MAX_VALUE, coalescer.nextFlushTime());
+        long before = System.currentTimeMillis();
+        coalescer.defer(30, 1, ADDRESS, PORT);
+        coalescer.defer(31, 1, ADDRESS, PORT);
+        long flushTime = coalescer.nextFlushTime();
+        assertTrue(flushTime >= before + Constants.ACK_DELAY_MS);
+        assertTrue(flushTime <= System.currentTimeMillis() + Constants.ACK_DELAY_MS);
+        assertEquals(1, wakeUps);
+
+        coalescer.takeRanges(ADDRESS, PORT);
+        assertEquals(Long.MAX_VALUE, coalescer.nextFlushTime());
+    }
+}
@@ -0,0 +1,98 @@
+package net.client;
+
+import main.java.net.protocol.SnakesProto;
+import net.protocol.Constants;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class RttEstimatorTest {
+    private final static InetAddress ADDRESS = InetAddress.getLoopbackAddress();
+    private final static int PORT = 5000;
+
+    private static MessageWithAdditionalInfo sent(long time, int times) {
+        MessageWithAdditionalInfo message = new MessageWithAdditionalInfo(
+                SnakesProto.GameMessage.newBuilder()
+                        .setPing(SnakesProto.GameMessage.PingMsg.getDefaultInstance())
+                        .setMsgSeq(1)
+                        .build(),
+                ADDRESS, PORT);
+        message.setLastSentTime(time);
+        for (int i = 0; i < times; ++i) {
+            message.incrementSentCount();
+        }
+        return message;
+    }
+
+    @Test
+    public void firstSampleSetsSrttAndRttvar() {
+        RttEstimator estimator = new RttEstimator();
+        estimator.onAcked(sent(1000, 1), 1100);
+
+        RttEstimator.PeerRtt rtt = estimator.getPeerRtt(ADDRESS, PORT);
+        assertEquals(1, rtt.getSamples());
+        assertEquals(100.0, rtt.getSrtt(), 1e-9);
+        assertEquals(50.0, rtt.getRttvar(), 1e-9);
+        // SRTT + 4 * RTTVAR
+        assertEquals(300, estimator.retransmitTimeout(sent(0, 1), 1000));
+    }
+
+    @Test
+    public void laterSamplesAreSmoothed() {
+        RttEstimator estimator = new RttEstimator();
+        estimator.onAcked(sent(0, 1), 100);
+        estimator.onAcked(sent(0, 1), 200);
+
+        RttEstimator.PeerRtt rtt = estimator.getPeerRtt(ADDRESS, PORT);
+        assertEquals(0.75 * 50 + 0.25 * 100, rtt.getRttvar(), 1e-9);
+        assertEquals(0.875 * 100 + 0.125 * 200, rtt.getSrtt(), 1e-9);
+    }
+
+    // Алгоритм Карна: подтверждение повтора не даёт замера
+    @Test
+    public void retransmittedMessagesAreNotSampled() {
+        RttEstimator estimator = new RttEstimator();
+        estimator.onAcked(sent(1000, 2), 1500);
+        assertNull(estimator.getPeerRtt(ADDRESS, PORT));
+
+        estimator.onAcked(sent(1000, 1), 1040);
+        estimator.onAcked(sent(1000, 3), 3000);
+        RttEstimator.PeerRtt rtt = estimator.getPeerRtt(ADDRESS, PORT);
+        assertEquals(1, rtt.getSamples());
+        assertEquals(40.0, rtt.getSrtt(), 1e-9);
+    }
+
+    @Test
+    public void defaultTimeoutWithoutSamples() {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(Math.max(Constants.RTO_MIN_MS, 150), estimator.retransmitTimeout(sent(0, 0), 150));
+        assertEquals(Constants.RTO_MIN_MS, estimator.retransmitTimeout(sent(0, 1), 1));
+    }
+
+    @Test
+    public void timeoutDoublesWithEachRetransmission() {
+        RttEstimator estimator = new RttEstimator();
+        long base = Constants.RTO_MIN_MS;
+        assertEquals(base, estimator.retransmitTimeout(sent(0, 1), base));
+        assertEquals(base * 2, estimator.retransmitTimeout(sent(0, 2), base));
+        assertEquals(base * 4, estimator.retransmitTimeout(sent(0, 3), base));
+    }
+
+    @Test
+    public void backoffShiftIsClamped() {
+        RttEstimator estimator = new RttEstimator();
+        long base = Constants.RTO_MIN_MS;
+        long clamped = Math.min(Constants.RTO_MAX_MS, base << 6);
+        assertEquals(clamped, estimator.retransmitTimeout(sent(0, 7), base));
+        assertEquals(clamped, estimator.retransmitTimeout(sent(0, 40), base));
+    }
+
+    @Test
+    public void timeoutIsClampedToMaximum() {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(Constants.RTO_MAX_MS, estimator.retransmitTimeout(sent(0, 1), 10L * Constants.RTO_MAX_MS));
+        assertEquals(Constants.RTO_MAX_MS, estimator.retransmitTimeout(sent(0, 20), 100));
+    }
+}
@@ -0,0 +1,65 @@
+package net.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    @Test
+    public void startsFull() {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        assertTrue(bucket.tryConsume(60));
+        assertTrue(bucket.tryConsume(40));
+        assertFalse(bucket.tryConsume(10));
+    }
+
+    @Test
+    public void oversizedMessagePassesOnlyWhenFull() {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        assertTrue(bucket.tryConsume(500));
+        assertFalse(bucket.tryConsume(500));
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100_000, 1000);
+        assertTrue(bucket.tryConsume(1000));
+        assertFalse(bucket.tryConsume(1000));
+        // 50 мс при 100 000 байт/с - с запасом больше ёмкости
+        Thread.sleep(50);
+        assertTrue(bucket.tryConsume(1000));
+    }
+
+    @Test
+    public void refillIsCappedByCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100_000, 100);
+        Thread.sleep(20);
+        assertTrue(bucket.tryConsume(100));
+        assertFalse(bucket.tryConsume(50));
+    }
+
+    // consume уводит баланс в минус, и пока долг не восполнится, tryConsume ничего не пропускает
+    @Test
+    public void consumeLeavesNegativeBalance() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        bucket.consume(400);
+        assertFalse(bucket.tryConsume(1));
+        // долг 300 байт восполняется 300 мс, через 100 мс баланс ещё около -200
+        Thread.sleep(100);
+        assertFalse(bucket.tryConsume(1));
+        Thread.sleep(400);
+        assertTrue(bucket.tryConsume(100));
+    }
+
+    @Test
+    public void millisUntilCoversMissingTokens() {
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        assertEquals(0L, bucket.millisUntil(100));
+        bucket.consume(400);
+        // долг 300 байт и ещё 50 на само сообщение при 1000 байт/с
+        long wait = bucket.millisUntil(50);
+        assertTrue(wait > 340 && wait <= 350);
+        // сообщение больше ёмкости ждёт полного ведра
+        assertTrue(bucket.millisUntil(500) > 390);
+    }
+}
@@ -0,0 +1,75 @@
+package net.protocol;
+
+import main.java.net.protocol.SnakesProto;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DatagramBatchTest {
+    private static byte[] message(long seq) {
+        return SnakesProto.GameMessage.newBuilder()
+                .setPing(SnakesProto.GameMessage.PingMsg.getDefaultInstance())
+                .setMsgSeq(seq)
+                .build()
+                .toByteArray();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<byte[]> messages = Arrays.asList(message(1), message(300), new byte[0], message(1L << 40));
+        byte[] packed = DatagramBatch.pack(messages);
+        assertTrue(DatagramBatch.isBatch(packed, packed.length));
+
+        List<ByteBuffer> unpacked = DatagramBatch.unpack(packed, packed.length);
+        assertEquals(messages.size(), unpacked.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            assertArrayEquals(messages.get(i), bytes(unpacked.get(i)));
+        }
+        assertEquals(1L << 40, SnakesProto.GameMessage.parseFrom(unpacked.get(3)).getMsgSeq());
+    }
+
+    @Test
+    public void singleMessageIsNotBatch() {
+        byte[] single = message(5);
+        assertFalse(DatagramBatch.isBatch(single, single.length));
+        assertFalse(DatagramBatch.isBatch(new byte[] {DatagramBatch.MAGIC}, 1));
+    }
+
+    @Test
+    public void truncatedMessageIsDropped() {
+        List<byte[]> messages = Arrays.asList(message(1), message(2), message(3));
+        byte[] packed = DatagramBatch.pack(messages);
+
+        List<ByteBuffer> unpacked = DatagramBatch.unpack(packed, packed.length - 1);
+        assertEquals(2, unpacked.size());
+        assertArrayEquals(messages.get(1), bytes(unpacked.get(1)));
+    }
+
+    @Test
+    public void truncatedLengthIsDropped() {
+        List<byte[]> messages = Arrays.asList(message(1), message(2));
+        byte[] packed = DatagramBatch.pack(messages);
+        int cut = DatagramBatch.HEADER_SIZE + DatagramBatch.LENGTH_SIZE + messages.get(0).length + 1;
+
+        List<ByteBuffer> unpacked = DatagramBatch.unpack(packed, cut);
+        assertEquals(1, unpacked.size());
+        assertArrayEquals(messages.get(0), bytes(unpacked.get(0)));
+    }
+
+    @Test
+    public void emptyBatch() {
+        byte[] packed = DatagramBatch.pack(Arrays.asList());
+        assertEquals(DatagramBatch.HEADER_SIZE, packed.length);
+        assertTrue(DatagramBatch.unpack(packed, packed.length).isEmpty());
+    }
+}
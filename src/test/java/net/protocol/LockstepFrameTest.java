@@ -0,0 +1,80 @@
+package net.protocol;
+
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LockstepFrameTest {
+    private static LockstepFrame roundTrip(LockstepFrame frame) {
+        return LockstepFrame.parse(ByteBuffer.wrap(frame.toBytes()));
+    }
+
+    @Test
+    public void roundTripWithChecksum() {
+        List<int[]> food = Arrays.asList(new int[] {0, 0}, new int[] {65535, 40000}, new int[] {7, 3});
+        LockstepFrame parsed = roundTrip(new LockstepFrame(42, new int[] {1, 2, 300, 0}, food, true, -5L));
+
+        assertEquals(42, parsed.getTick());
+        assertTrue(parsed.hasChecksum());
+        assertEquals(-5L, parsed.getChecksum());
+        assertEquals(2, parsed.getSteerCount());
+        assertEquals(1, parsed.getSteerPlayerId(0));
+        assertEquals(2, parsed.getSteerDirection(0));
+        assertEquals(300, parsed.getSteerPlayerId(1));
+        assertEquals(0, parsed.getSteerDirection(1));
+        assertEquals(food.size(), parsed.getFood().size());
+        for (int i = 0; i < food.size(); ++i) {
+            assertArrayEquals(food.get(i), parsed.getFood().get(i));
+        }
+    }
+
+    @Test
+    public void roundTripWithoutChecksum() {
+        LockstepFrame frame = new LockstepFrame(7, new int[0], new ArrayList<>(), false, 123L);
+        LockstepFrame parsed = roundTrip(frame);
+
+        assertEquals(7, parsed.getTick());
+        assertFalse(parsed.hasChecksum());
+        assertEquals(0L, parsed.getChecksum());
+        assertEquals(0, parsed.getSteerCount());
+        assertTrue(parsed.getFood().isEmpty());
+        // без контрольной суммы кадр на 8 байт короче
+        assertEquals(Integer.BYTES + 1 + 2 * Integer.BYTES, frame.toBytes().length);
+    }
+
+    @Test
+    public void everyTruncationIsDetected() {
+        byte[] bytes = new LockstepFrame(3, new int[] {1, 1}, Arrays.asList(new int[] {2, 2}, new int[] {4, 5}),
+                true, 99L).toBytes();
+        for (int length = 0; length < bytes.length; ++length) {
+            try {
+                LockstepFrame.parse(ByteBuffer.wrap(bytes, 0, length));
+                fail("кадр длиной " + length + " из " + bytes.length + " разобран");
+            }
+            catch (BufferUnderflowException | IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSteerCountIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(1).put((byte) 0).putInt(-1).putInt(0);
+        buffer.flip();
+        LockstepFrame.parse(buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hugeFoodCountIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(1).put((byte) 0).putInt(0).putInt(Integer.MAX_VALUE);
+        buffer.flip();
+        LockstepFrame.parse(buffer);
+    }
+}
@@ -0,0 +1,46 @@
+package net.protocol;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import main.java.net.protocol.SnakesProto;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ProtocolExtensionsTest {
+    private static SnakesProto.GameMessage steer(long seq) {
+        return SnakesProto.GameMessage.newBuilder()
+                .setSteer(SnakesProto.GameMessage.SteerMsg.newBuilder().setDirection(SnakesProto.Direction.UP))
+                .setMsgSeq(seq)
+                .build();
+    }
+
+    private static byte[] append(byte[] data, byte[] tail) {
+        byte[] result = Arrays.copyOf(data, data.length + tail.length);
+        System.arraycopy(tail, 0, result, data.length, tail.length);
+        return result;
+    }
+
+    // Подтверждения, дописанные к готовым байтам, разбираются так же, как вшитые через decorate
+    @Test
+    public void appendedSackMatchesDecorate() throws InvalidProtocolBufferException {
+        long[] ranges = {3, 5, 9, 9, 300, 1000};
+        byte[] cached = ProtocolExtensions.decorate(steer(17), null).toByteArray();
+        SnakesProto.GameMessage parsed = SnakesProto.GameMessage.parseFrom(
+                append(cached, ProtocolExtensions.sackBytes(ranges)));
+
+        assertEquals(ProtocolExtensions.decorate(steer(17), ranges), parsed);
+        assertEquals(Arrays.asList(3L, 5L, 9L, 9L, 300L, 1000L), ProtocolExtensions.getSackRanges(parsed));
+        assertEquals(ProtocolExtensions.localFeatures(), ProtocolExtensions.getFeatures(parsed));
+    }
+
+    // У отложенного AckMsg диапазоны уже есть, новые идут после них
+    @Test
+    public void appendedSackExtendsExistingRanges() throws InvalidProtocolBufferException {
+        byte[] cached = ProtocolExtensions.decorate(steer(1), new long[] {1, 2}).toByteArray();
+        SnakesProto.GameMessage parsed = SnakesProto.GameMessage.parseFrom(
+                append(cached, ProtocolExtensions.sackBytes(new long[] {7, 8})));
+        assertEquals(Arrays.asList(1L, 2L, 7L, 8L), ProtocolExtensions.getSackRanges(parsed));
+    }
+}
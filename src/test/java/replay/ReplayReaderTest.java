@@ -0,0 +1,137 @@
+package replay;
+
+import main.java.net.protocol.SnakesProto;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayReaderTest {
+    private final static int KEYFRAME_INTERVAL = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Состояние на ходу tick: змеи ползут, еда съедается и появляется, игроки приходят и уходят
+    private static SnakesProto.GameState state(int tick) {
+        SnakesProto.GameState.Builder builder = SnakesProto.GameState.newBuilder();
+        builder.setStateOrder(tick);
+        builder.setConfig(SnakesProto.GameConfig.newBuilder().setWidth(40).setHeight(30));
+        SnakesProto.GamePlayers.Builder players = SnakesProto.GamePlayers.newBuilder();
+        for (int id = 1; id <= 4; ++id) {
+            if (id == 3 && tick % 17 < 5) {
+                continue;
+            }
+            players.addPlayers(SnakesProto.GamePlayer.newBuilder()
+                    .setName("p" + id).setId(id).setIpAddress("").setPort(id)
+                    .setRole(SnakesProto.NodeRole.NORMAL).setScore(tick / (id + 1)));
+            builder.addSnakes(SnakesProto.GameState.Snake.newBuilder()
+                    .setPlayerId(id)
+                    .setState(SnakesProto.GameState.Snake.SnakeState.ALIVE)
+                    .setHeadDirection(SnakesProto.Direction.RIGHT)
+                    .addPoints(coord((tick / id) % 40, id * 5))
+                    .addPoints(coord(-2, 0)));
+        }
+        builder.setPlayers(players);
+        for (int i = 0; i < 6; ++i) {
+            int age = (tick + 3 * i) / 7;
+            builder.addFoods(coord((age * 13 + i) % 40, (age * 7 + i) % 30));
+        }
+        return builder.build();
+    }
+
+    private static SnakesProto.GameState.Coord.Builder coord(int x, int y) {
+        return SnakesProto.GameState.Coord.newBuilder().setX(x).setY(y);
+    }
+
+    private Path record(List<Integer> ticks, int segmentSize) throws IOException {
+        Path directory = folder.newFolder().toPath();
+        GameRecorder recorder = new GameRecorder(directory, "test", segmentSize,
+                GameRecorder.FsyncPolicy.NEVER, 0, KEYFRAME_INTERVAL);
+        for (int tick : ticks) {
+            recorder.recordState(state(tick));
+        }
+        recorder.close();
+        return GameRecorder.segmentPath(directory, "test", 0);
+    }
+
+    private static List<Integer> range(int from, int to, int step) {
+        List<Integer> ticks = new ArrayList<>();
+        for (int tick = from; tick <= to; tick += step) {
+            ticks.add(tick);
+        }
+        return ticks;
+    }
+
+    @Test
+    public void seekAroundKeyframes() throws IOException {
+        ReplayReader reader = new ReplayReader(record(range(1, 60, 1), 1 << 20));
+        assertEquals(1, reader.getFirstTick());
+        assertEquals(60, reader.getLastTick());
+        // ключевые кадры на ходах 1, 11, 21...
+        for (int keyframe = 1; keyframe <= 60; keyframe += KEYFRAME_INTERVAL) {
+            for (int tick = keyframe - 1; tick <= keyframe + 1; ++tick) {
+                if (tick < 1 || tick > 60) {
+                    continue;
+                }
+                ReplayReader.Cursor cursor = reader.seek(tick);
+                assertEquals(tick, cursor.getTick());
+                assertEquals(state(tick), cursor.getState());
+            }
+        }
+    }
+
+    @Test
+    public void everyTickMatchesRecordedState() throws IOException {
+        ReplayReader reader = new ReplayReader(record(range(1, 60, 1), 1 << 20));
+        for (int tick = 1; tick <= 60; ++tick) {
+            assertEquals(state(tick), reader.seek(tick).getState());
+        }
+    }
+
+    @Test
+    public void cursorWalksFromKeyframeThroughDeltas() throws IOException {
+        ReplayReader reader = new ReplayReader(record(range(1, 60, 1), 1 << 20));
+        ReplayReader.Cursor cursor = reader.seek(KEYFRAME_INTERVAL - 1);
+        for (int tick = KEYFRAME_INTERVAL; tick <= 60; ++tick) {
+            assertEquals(tick, cursor.peekTick());
+            assertTrue(cursor.next());
+            assertEquals(state(tick), cursor.getState());
+        }
+        assertEquals(-1, cursor.peekTick());
+        assertFalse(cursor.next());
+    }
+
+    // Между записанными ходами курсор встаёт на последний записанный ход не больше запрошенного
+    @Test
+    public void seekBetweenRecordedTicks() throws IOException {
+        ReplayReader reader = new ReplayReader(record(range(3, 99, 3), 1 << 20));
+        assertEquals(state(30), reader.seek(30).getState());
+        assertEquals(state(30), reader.seek(31).getState());
+        assertEquals(state(30), reader.seek(32).getState());
+        assertEquals(state(33), reader.seek(33).getState());
+        assertEquals(state(99), reader.seek(1000).getState());
+        // раньше первой записи - первое состояние
+        assertEquals(state(3), reader.seek(0).getState());
+    }
+
+    // Маленькие сегменты: каждый начинается с ключевого кадра, дельта через границу сегмента не идёт
+    @Test
+    public void seekAcrossSegments() throws IOException {
+        Path first = record(range(1, 80, 1), 2048);
+        assertTrue(first.resolveSibling("test-00002.rec").toFile().exists());
+
+        ReplayReader reader = new ReplayReader(first);
+        assertEquals(80, reader.getLastTick());
+        for (int tick = 1; tick <= 80; ++tick) {
+            assertEquals(state(tick), reader.seek(tick).getState());
+        }
+        assertEquals(state(1).getConfig(), reader.getConfig());
+    }
+}